@@ -1,10 +1,9 @@
 package com.evacipated.cardcrawl.modthespire;
 
-import org.clapper.util.classutil.*;
 import sun.reflect.ConstructorAccessor;
 import sun.reflect.ReflectionFactory;
 
-import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.util.*;
@@ -26,6 +25,7 @@ public class EnumBusterReflect {
 
     private final Collection<Field> switchFields;
 
+    private final boolean keepHistory;
     private final Deque<Memento> undoStack =
         new LinkedList<Memento>();
 
@@ -35,9 +35,19 @@ public class EnumBusterReflect {
      * switchUsers in sync with the enum values.
      */
     public EnumBusterReflect(ClassLoader loader, Class<?> clazz) throws NoSuchFieldException, ClassNotFoundException
+    {
+        this(loader, clazz, true);
+    }
+
+    /**
+     * If keepHistory is false, no undo snapshots are taken, so
+     * undo() and restore() do nothing.
+     */
+    public EnumBusterReflect(ClassLoader loader, Class<?> clazz, boolean keepHistory) throws NoSuchFieldException, ClassNotFoundException
     {
         this.loader = loader;
         this.clazz = clazz;
+        this.keepHistory = keepHistory;
         switchFields = findRelatedSwitchFields();
     }
 
@@ -66,7 +76,9 @@ public class EnumBusterReflect {
     public Enum<?> make(String value, int ordinal,
                   Class[] additionalTypes, Object[] additional) {
         try {
-            undoStack.push(new Memento());
+            if (keepHistory) {
+                undoStack.push(new Memento());
+            }
             ConstructorAccessor ca = findConstructorAccessor(
                 additionalTypes, clazz);
             return constructEnum(clazz, ca, value,
@@ -99,7 +111,9 @@ public class EnumBusterReflect {
      */
     public void addByValue(Enum<?> e) {
         try {
-            undoStack.push(new Memento());
+            if (keepHistory) {
+                undoStack.push(new Memento());
+            }
             Field valuesField = findValuesField();
 
             // we get the current Enum[]
@@ -131,6 +145,54 @@ public class EnumBusterReflect {
         }
     }
 
+    /**
+     * Same as calling addByValue for each enum in order, but
+     * the values array and the switch maps are only copied
+     * and grown once.
+     *
+     * @param enums the enums to add
+     */
+    public void addByValues(Collection<? extends Enum<?>> enums) {
+        try {
+            if (keepHistory) {
+                undoStack.push(new Memento());
+            }
+            Field valuesField = findValuesField();
+
+            Enum<?>[] values = values();
+            List<Enum<?>> newValues = new ArrayList<>(Arrays.asList(values));
+            nextEnum:
+            for (Enum<?> e : enums) {
+                for (int i = 0; i < newValues.size(); i++) {
+                    Enum<?> value = newValues.get(i);
+                    if (value.name().equals(e.name())) {
+                        setOrdinal(e, value.ordinal());
+                        newValues.set(i, e);
+                        replaceConstant(e);
+                        continue nextEnum;
+                    }
+                }
+                setOrdinal(e, newValues.size());
+                newValues.add(e);
+            }
+
+            // copyOf keeps the array's runtime type
+            Enum<?>[] valuesArray = Arrays.copyOf(values, newValues.size());
+            for (int i = 0; i < valuesArray.length; i++) {
+                valuesArray[i] = newValues.get(i);
+            }
+            ReflectionHelper.setStaticFinalField(
+                valuesField, valuesArray);
+
+            if (valuesArray.length > values.length) {
+                addSwitchCases(valuesArray.length - values.length);
+            }
+        } catch (Exception ex) {
+            throw new IllegalArgumentException(
+                "Could not set the enums", ex);
+        }
+    }
+
     /**
      * We delete the enum from the values array and set the
      * constant pointer to null.
@@ -230,10 +292,14 @@ public class EnumBusterReflect {
      * by one empty slot.
      */
     private void addSwitchCase() {
+        addSwitchCases(1);
+    }
+
+    private void addSwitchCases(int count) {
         try {
             for (Field switchField : switchFields) {
                 int[] switches = (int[]) switchField.get(null);
-                switches = Arrays.copyOf(switches, switches.length + 1);
+                switches = Arrays.copyOf(switches, switches.length + count);
                 ReflectionHelper.setStaticFinalField(
                     switchField, switches
                 );
@@ -299,34 +365,39 @@ public class EnumBusterReflect {
     {
         Collection<Field> result = new ArrayList<Field>();
 
-        ClassFinder finder = new ClassFinder();
-        finder.add(new File(Loader.STS_JAR));
-
-        ClassFilter filter =
-            new AndClassFilter(
-                new NotClassFilter(new InterfaceOnlyClassFilter()),
-                new NotClassFilter(new AbstractClassFilter()),
-                new RegexClassFilter("com\\.megacrit\\.cardcrawl\\..+\\$1")
-            );
-        Collection<ClassInfo> foundClasses = new ArrayList<>();
-        finder.findClasses(foundClasses, filter);
-
         if (Loader.DEBUG) {
             System.out.println();
             System.out.println(clazz.getName());
         }
+        String switchMapName = SwitchMapIndex.fieldName(clazz);
         int count = 0;
-        for (ClassInfo classInfo : foundClasses) {
-            for (FieldInfo field : classInfo.getFields()) {
-                String switchMapName = "$SwitchMap$" + clazz.getName().replace('.', '$');
-                if (field.getName().equals(switchMapName)) {
-                    count++;
-                    if (Loader.DEBUG) System.out.println("  " + classInfo.getClassName());
-                    Field realField = loader.loadClass(classInfo.getClassName()).getDeclaredField(field.getName());
-                    realField.setAccessible(true);
-                    result.add(realField);
+        try {
+            for (String className : SwitchMapIndex.getGameClasses(switchMapName)) {
+                count++;
+                if (Loader.DEBUG) System.out.println("  " + className);
+                Field realField = loader.loadClass(className).getDeclaredField(switchMapName);
+                realField.setAccessible(true);
+                result.add(realField);
+            }
+        } catch (IOException e) {
+            throw new ClassNotFoundException("Failed to index switch maps", e);
+        }
+        // A mod's switch map that hasn't been initialized yet will be sized from the busted
+        // values() when it is, and initializing it now could touch SpireEnums that don't exist yet
+        for (String className : SwitchMapIndex.getModClasses(switchMapName)) {
+            Class<?> cls = loader.loadClass(className);
+            try {
+                if (!ReflectionHelper.isInitialized(cls)) {
+                    continue;
                 }
+            } catch (IllegalAccessException e) {
+                continue;
             }
+            count++;
+            if (Loader.DEBUG) System.out.println("  " + className);
+            Field realField = cls.getDeclaredField(switchMapName);
+            realField.setAccessible(true);
+            result.add(realField);
         }
         if (Loader.DEBUG) System.out.println(count + " switch statement(s)");
 
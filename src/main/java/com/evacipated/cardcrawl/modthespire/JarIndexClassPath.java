@@ -0,0 +1,123 @@
+package com.evacipated.cardcrawl.modthespire;
+
+import com.evacipated.cardcrawl.modthespire.cache.PatchedClassCache;
+import javassist.ClassPath;
+import javassist.NotFoundException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// ClassPath over several jars, answered from a class name -> jar index
+// The index is built from each jar's central directory when constructed, and the jars are kept
+// open, so lookups (including misses) don't have to probe each jar in turn.
+// When a class is in more than one jar, the first jar given wins, same as URLClassLoader.
+// URLs that aren't local files are skipped, they're left for whatever ClassPath comes after this one.
+// A class the parent loader has (the JDK, MTS itself) is left for the LoaderClassPath behind this one,
+// which finds it there first, so a mod jar bundling javax.*, sun.*, or anything else from it can't shadow it.
+public class JarIndexClassPath implements ClassPath
+{
+    private final URL[] urls;
+    private final ZipFile[] jars;
+    private final Map<String, Integer> index = new HashMap<>();
+    private final ClassLoader parent;
+    // Class name -> whether the parent loader has it, filled in as classes are looked up
+    private final Map<String, Boolean> inParent = new ConcurrentHashMap<>();
+
+    public JarIndexClassPath(URL[] urls, ClassLoader parent) throws IOException
+    {
+        this.urls = urls;
+        this.parent = parent;
+        jars = new ZipFile[urls.length];
+        for (int i = 0; i < urls.length; ++i) {
+            if (!"file".equals(urls[i].getProtocol())) {
+                continue;
+            }
+            File file = PatchedClassCache.urlToFile(urls[i]);
+            if (!file.isFile()) {
+                continue;
+            }
+            jars[i] = new ZipFile(file);
+            Enumeration<? extends ZipEntry> entries = jars[i].entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                // java.* always comes from the JDK, without having to ask
+                if (name.endsWith(".class") && !name.startsWith("java/")) {
+                    index.putIfAbsent(name.substring(0, name.length() - 6).replace('/', '.'), i);
+                }
+            }
+        }
+    }
+
+    @Override
+    public InputStream openClassfile(String classname) throws NotFoundException
+    {
+        Integer i = lookup(classname);
+        if (i == null) {
+            return null;
+        }
+        ZipFile jar = jars[i];
+        ZipEntry entry = jar.getEntry(toPath(classname));
+        try {
+            return entry != null ? jar.getInputStream(entry) : null;
+        } catch (IOException e) {
+            throw new NotFoundException("broken jar file?: " + jar.getName(), e);
+        }
+    }
+
+    @Override
+    public URL find(String classname)
+    {
+        Integer i = lookup(classname);
+        if (i == null) {
+            return null;
+        }
+        try {
+            return new URL("jar:" + urls[i].toExternalForm() + "!/" + toPath(classname));
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        index.clear();
+        for (ZipFile jar : jars) {
+            if (jar != null) {
+                try {
+                    jar.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "jar index (" + index.size() + " classes)";
+    }
+
+    private Integer lookup(String classname)
+    {
+        Integer i = index.get(classname);
+        if (i == null || inParent.computeIfAbsent(classname, k -> parent.getResource(toPath(k)) != null)) {
+            return null;
+        }
+        return i;
+    }
+
+    private static String toPath(String classname)
+    {
+        return classname.replace('.', '/') + ".class";
+    }
+}
@@ -1,5 +1,6 @@
 package com.evacipated.cardcrawl.modthespire;
 
+import com.evacipated.cardcrawl.modthespire.cache.PatchedClassCache;
 import com.evacipated.cardcrawl.modthespire.lib.SpireConfig;
 import com.evacipated.cardcrawl.modthespire.steam.SteamSearch;
 import com.evacipated.cardcrawl.modthespire.steam.SteamWorkshop;
@@ -31,6 +32,14 @@ public class Loader
 {
     public static boolean DEBUG = false;
     public static boolean OUT_JAR = false;
+    public static boolean PATCH_CACHE = true;
+    public static int PATCH_CACHE_SIZE = 256; // MB
+    public static int SCAN_THREADS = Runtime.getRuntime().availableProcessors();
+    public static int BYTECODE_THREADS = Runtime.getRuntime().availableProcessors();
+    public static boolean FUSE_INSTRUMENT = true;
+    public static boolean VERIFY_LOCATOR_CACHE = false;
+    public static boolean LAZY_CLASSES = false;
+    public static boolean INCREMENTAL_PATCHING = true;
 
     public static Semver MTS_VERSION;
     public static String MOD_DIR = "mods/";
@@ -103,6 +112,13 @@ public class Loader
             Properties defaults = new Properties();
             defaults.setProperty("debug", Boolean.toString(false));
             defaults.setProperty("out-jar", Boolean.toString(false));
+            defaults.setProperty("patch-cache", Boolean.toString(true));
+            defaults.setProperty("patch-cache-size", Integer.toString(PATCH_CACHE_SIZE));
+            defaults.setProperty("scan-threads", Integer.toString(SCAN_THREADS));
+            defaults.setProperty("bytecode-threads", Integer.toString(BYTECODE_THREADS));
+            defaults.setProperty("fuse-instrument", Boolean.toString(true));
+            defaults.setProperty("lazy-classes", Boolean.toString(false));
+            defaults.setProperty("incremental-patching", Boolean.toString(true));
             defaults.putAll(ModSelectWindow.getDefaults());
             MTS_CONFIG = new SpireConfig(null, "ModTheSpire", defaults);
         } catch (IOException e) {
@@ -110,6 +126,13 @@ public class Loader
         }
         DEBUG = MTS_CONFIG.getBool("debug");
         OUT_JAR = MTS_CONFIG.getBool("out-jar");
+        PATCH_CACHE = MTS_CONFIG.getBool("patch-cache");
+        PATCH_CACHE_SIZE = MTS_CONFIG.getInt("patch-cache-size");
+        SCAN_THREADS = MTS_CONFIG.getInt("scan-threads");
+        BYTECODE_THREADS = MTS_CONFIG.getInt("bytecode-threads");
+        FUSE_INSTRUMENT = MTS_CONFIG.getBool("fuse-instrument");
+        LAZY_CLASSES = MTS_CONFIG.getBool("lazy-classes");
+        INCREMENTAL_PATCHING = MTS_CONFIG.getBool("incremental-patching");
 
         if (Arrays.asList(args).contains("--debug")) {
             DEBUG = true;
@@ -119,6 +142,49 @@ public class Loader
             OUT_JAR = true;
         }
 
+        if (Arrays.asList(args).contains("--no-patch-cache")) {
+            PATCH_CACHE = false;
+        }
+
+        // --scan-threads 1 scans mod jars one at a time
+        String scanThreads = getArgValue(args, "--scan-threads");
+        if (scanThreads != null) {
+            try {
+                SCAN_THREADS = Integer.parseInt(scanThreads);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid --scan-threads value: " + scanThreads);
+            }
+        }
+
+        // --bytecode-threads 1 turns patched classes into bytecode one at a time
+        String bytecodeThreads = getArgValue(args, "--bytecode-threads");
+        if (bytecodeThreads != null) {
+            try {
+                BYTECODE_THREADS = Integer.parseInt(bytecodeThreads);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid --bytecode-threads value: " + bytecodeThreads);
+            }
+        }
+
+        if (Arrays.asList(args).contains("--no-fuse-instrument")) {
+            FUSE_INSTRUMENT = false;
+        }
+
+        // Runs every Locator even when its lines are cached, and reports cached lines that are wrong
+        if (Arrays.asList(args).contains("--verify-locator-cache")) {
+            VERIFY_LOCATOR_CACHE = true;
+        }
+
+        // Defines each patched class the first time the game loads it, instead of all of them up front
+        if (Arrays.asList(args).contains("--lazy-classes")) {
+            LAZY_CLASSES = true;
+        }
+
+        // Patches every class again when the mod set changes, instead of reusing unaffected ones
+        if (Arrays.asList(args).contains("--no-incremental-patching")) {
+            INCREMENTAL_PATCHING = false;
+        }
+
         allowBeta = true;
         if (Arrays.asList(args).contains("--allow-beta")) {
             allowBeta = true;
@@ -301,50 +367,86 @@ public class Loader
             MTSClassLoader loader = new MTSClassLoader(Loader.class.getResourceAsStream(COREPATCHES_JAR), buildUrlArray(modInfos), Loader.class.getClassLoader());
 
             if (modJars.length > 0) {
-                MTSClassLoader tmpPatchingLoader = new MTSClassLoader(Loader.class.getResourceAsStream(COREPATCHES_JAR), buildUrlArray(modInfos), Loader.class.getClassLoader());
-                
-                System.out.println("Begin patching...");
-                ClassPool pool = new MTSClassPool(tmpPatchingLoader);
-                pool.insertClassPath(new LoaderClassPath(tmpPatchingLoader));
-                tmpPatchingLoader.addStreamToClassPool(pool); // Inserts infront of above path
-                SortedMap<String, CtClass> ctClasses = new TreeMap<>();
-
-                // Patch enums
-                System.out.printf("Patching enums...");
-                for (CtClass cls : Patcher.patchEnums(tmpPatchingLoader, pool, Loader.class.getResource(Loader.COREPATCHES_JAR))) {
-                    ctClasses.put(countSuperClasses(cls) + cls.getName(), cls);
-                }
-                // Patch SpireEnums from mods
-                for (CtClass cls : Patcher.patchEnums(tmpPatchingLoader, pool, modInfos)) {
-                    ctClasses.put(countSuperClasses(cls) + cls.getName(), cls);
+                PatchedClassCache patchCache = null;
+                Map<String, byte[]> patchedClasses = null;
+                if (PATCH_CACHE) {
+                    patchCache = new PatchedClassCache(modInfos);
+                    patchedClasses = patchCache.load();
                 }
-                System.out.println("Done.");
 
-                // Find and inject core patches
-                System.out.println("Finding core patches...");
-                for (CtClass cls : Patcher.injectPatches(tmpPatchingLoader, pool, Patcher.findPatches(new URL[]{Loader.class.getResource(Loader.COREPATCHES_JAR)}))) {
-                    ctClasses.put(countSuperClasses(cls) + cls.getName(), cls);
-                }
-                // Find and inject mod patches
-                System.out.println("Finding patches...");
-                for (CtClass cls : Patcher.injectPatches(tmpPatchingLoader, pool, Patcher.findPatches(MODINFOS))) {
-                    ctClasses.put(countSuperClasses(cls) + cls.getName(), cls);
-                }
+                ClassPool pool = null;
+                if (patchedClasses != null) {
+                    System.out.printf("Loading cached patched classes...");
+                    if (Loader.DEBUG) {
+                        System.out.printf(" (%s) ", patchCache.getFingerprint());
+                    }
+                    loader.definePatchedClasses(patchedClasses);
+                    System.out.println("Done.");
+                    // Still need the annotation index for SpireInitializers
+                    Patcher.findPatches(MODINFOS);
+                } else {
+                    MTSClassLoader tmpPatchingLoader = new MTSClassLoader(Loader.class.getResourceAsStream(COREPATCHES_JAR), buildUrlArray(modInfos), Loader.class.getClassLoader());
+
+                    System.out.println("Begin patching...");
+                    pool = new MTSClassPool(tmpPatchingLoader);
+                    pool.insertClassPath(new LoaderClassPath(tmpPatchingLoader));
+                    JarIndexClassPath jarClassPath = new JarIndexClassPath(buildUrlArray(modInfos), tmpPatchingLoader.getParent());
+                    pool.insertClassPath(jarClassPath); // Inserts infront of above path, which is left for the JDK
+                    tmpPatchingLoader.addStreamToClassPool(pool); // Inserts infront of above path
+                    SortedMap<String, CtClass> ctClasses = new TreeMap<>();
+
+                    // Patch enums
+                    System.out.printf("Patching enums...");
+                    for (CtClass cls : Patcher.patchEnums(tmpPatchingLoader, pool, Loader.class.getResource(Loader.COREPATCHES_JAR))) {
+                        ctClasses.put(countSuperClasses(cls) + cls.getName(), cls);
+                    }
+                    // Patch SpireEnums from mods
+                    for (CtClass cls : Patcher.patchEnums(tmpPatchingLoader, pool, modInfos)) {
+                        ctClasses.put(countSuperClasses(cls) + cls.getName(), cls);
+                    }
+                    System.out.println("Done.");
 
-                for (CtClass cls : Patcher.patchOverrides(tmpPatchingLoader, pool, MODINFOS)) {
-                    ctClasses.put(countSuperClasses(cls) + cls.getName(), cls);
-                }
+                    // Find and inject core patches
+                    System.out.println("Finding core patches...");
+                    for (CtClass cls : Patcher.injectPatches(tmpPatchingLoader, pool, Patcher.findPatches(new URL[]{Loader.class.getResource(Loader.COREPATCHES_JAR)}))) {
+                        ctClasses.put(countSuperClasses(cls) + cls.getName(), cls);
+                    }
+                    // Find and inject mod patches
+                    System.out.println("Finding patches...");
+                    for (CtClass cls : Patcher.injectPatches(tmpPatchingLoader, pool, Patcher.findPatches(MODINFOS))) {
+                        ctClasses.put(countSuperClasses(cls) + cls.getName(), cls);
+                    }
+                    if (Loader.DEBUG) {
+                        ((MTSClassPool) pool).printGetStats("Finding patches");
+                    }
 
-                Patcher.finalizePatches(tmpPatchingLoader);
-                Patcher.compilePatches(loader, ctClasses);
+                    for (CtClass cls : Patcher.patchOverrides(tmpPatchingLoader, pool, MODINFOS)) {
+                        ctClasses.put(countSuperClasses(cls) + cls.getName(), cls);
+                    }
+
+                    if (patchCache != null && INCREMENTAL_PATCHING) {
+                        Patcher.reuseClasses(pool, patchCache.loadPrevious());
+                    }
+                    Patcher.finalizePatches(tmpPatchingLoader);
+                    patchedClasses = Patcher.compilePatches(loader, ctClasses);
+                    if (patchCache != null) {
+                        patchCache.save(patchedClasses, Patcher.getDependencies());
+                    }
 
-                ctClasses.clear();
-                tmpPatchingLoader.close();
+                    ctClasses.clear();
+                    tmpPatchingLoader.close();
+                    pool.removeClassPath(jarClassPath);
+                }
 
                 POOL = new MTSClassPool(loader);
                 POOL.insertClassPath(new LoaderClassPath(loader));
                 loader.addStreamToClassPool(POOL);
-                ((MTSClassPool) POOL).setParent(pool);
+                if (pool != null) {
+                    ((MTSClassPool) POOL).setParent(pool);
+                } else {
+                    // Stands in for the patching pool, which only answers what the loader can't
+                    POOL.appendClassPath(new MapClassPath("patched", patchedClasses));
+                }
                 POOL.childFirstLookup = true;
 
                 // Bust enums
@@ -380,7 +482,7 @@ public class Loader
                 // Output JAR if requested
                 if (Loader.OUT_JAR) {
                     System.out.printf("Dumping JAR...");
-                    OutJar.dumpJar(loader, pool, STS_PATCHED_JAR);
+                    OutJar.dumpJar(loader, pool != null ? pool : POOL, STS_PATCHED_JAR);
                     System.out.println("Done.");
                     return;
                 }
@@ -651,6 +753,15 @@ public class Loader
         }
     }
 
+    private static String getArgValue(String[] args, String name)
+    {
+        int i = Arrays.asList(args).indexOf(name);
+        if (i >= 0 && i + 1 < args.length) {
+            return args[i + 1];
+        }
+        return null;
+    }
+
     private static int countSuperClasses(CtClass cls)
     {
         String name = cls.getName();
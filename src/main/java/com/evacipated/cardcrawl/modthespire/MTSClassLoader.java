@@ -1,6 +1,5 @@
 package com.evacipated.cardcrawl.modthespire;
 
-import javassist.ByteArrayClassPath;
 import javassist.ClassPool;
 
 import java.io.ByteArrayOutputStream;
@@ -24,6 +23,8 @@ public class MTSClassLoader extends URLClassLoader
     private ClassLoader parent;
     private Map<String, byte[]> classes = new HashMap<>();
     private Map<String, Class<?>> definedClasses = new HashMap<>();
+    // Patched classes waiting to be defined the first time they're asked for, see Loader.LAZY_CLASSES
+    private final Map<String, byte[]> pendingClasses = new HashMap<>();
 
     public MTSClassLoader(InputStream stream, URL[] urls, ClassLoader parent) throws IOException
     {
@@ -77,7 +78,10 @@ public class MTSClassLoader extends URLClassLoader
     @Override
     public Class<?> findClass(String name) throws ClassNotFoundException
     {
-        Class<?> ret;
+        Class<?> ret = definePendingClass(name);
+        if (ret != null) {
+            return ret;
+        }
         try {
             ret = super.findClass(name);
         } catch (ClassNotFoundException e) {
@@ -93,10 +97,65 @@ public class MTSClassLoader extends URLClassLoader
         return ret;
     }
 
-    public void addStreamToClassPool(ClassPool pool)
+    public Class<?> definePatchedClass(String name, byte[] b)
+    {
+        return defineClass(name, b, 0, b.length, (ProtectionDomain) null);
+    }
+
+    // Classes must be given in superclass-depth order, unless they're only queued
+    public void definePatchedClasses(Map<String, byte[]> patchedClasses)
+    {
+        for (Map.Entry<String, byte[]> entry : patchedClasses.entrySet()) {
+            if (Loader.LAZY_CLASSES) {
+                addPendingClass(entry.getKey(), entry.getValue());
+            } else {
+                definePatchedClass(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // Defined by findClass the first time the JVM asks for it, in place of the unpatched class
+    // Superclasses and interfaces are asked for while it's being defined, so order doesn't matter
+    public void addPendingClass(String name, byte[] b)
+    {
+        synchronized (pendingClasses) {
+            pendingClasses.put(name, b);
+        }
+    }
+
+    // Defined without holding pendingClasses, since defining resolves supertypes through this loader,
+    // which other threads may be holding while they wait for pendingClasses
+    // The bytes stay queued until it's defined, so a thread asking for it at the same time defines the
+    // same patched class instead of finding the unpatched one, and whichever loses uses the winner's.
+    private Class<?> definePendingClass(String name)
     {
-        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
-            pool.insertClassPath(new ByteArrayClassPath(entry.getKey(), entry.getValue()));
+        byte[] b;
+        synchronized (pendingClasses) {
+            b = pendingClasses.get(name);
+        }
+        if (b == null) {
+            return null;
+        }
+        if (Loader.DEBUG) {
+            System.out.println("Defining patched class " + name);
+        }
+        Class<?> ret;
+        try {
+            ret = definePatchedClass(name, b);
+        } catch (LinkageError e) {
+            ret = findLoadedClass(name);
+            if (ret == null) {
+                throw e;
+            }
+        }
+        synchronized (pendingClasses) {
+            pendingClasses.remove(name);
         }
+        return ret;
+    }
+
+    public void addStreamToClassPool(ClassPool pool)
+    {
+        pool.insertClassPath(new MapClassPath("corepatches", classes));
     }
 }
@@ -1,11 +1,19 @@
 package com.evacipated.cardcrawl.modthespire;
 
 import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.NotFoundException;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MTSClassPool extends ClassPool
 {
     private ClassLoader classLoader;
 
+    // Only counted in debug mode
+    private final AtomicLong getCount = new AtomicLong();
+    private final AtomicLong getNanos = new AtomicLong();
+
     public MTSClassPool(ClassLoader classLoader)
     {
         this.classLoader = classLoader;
@@ -22,4 +30,28 @@ public class MTSClassPool extends ClassPool
     {
         this.parent = parent;
     }
+
+    @Override
+    public CtClass get(String classname) throws NotFoundException
+    {
+        if (!Loader.DEBUG) {
+            return super.get(classname);
+        }
+        long startTime = System.nanoTime();
+        try {
+            return super.get(classname);
+        } finally {
+            getNanos.addAndGet(System.nanoTime() - startTime);
+            getCount.incrementAndGet();
+        }
+    }
+
+    // Prints and resets the pool.get timings gathered since the last call
+    public void printGetStats(String label)
+    {
+        long count = getCount.getAndSet(0);
+        long nanos = getNanos.getAndSet(0);
+        System.out.println(String.format("%s: %d pool.get calls, %.3fms total, %.2fus avg",
+            label, count, nanos / 1000000.0, count > 0 ? nanos / 1000.0 / count : 0.0));
+    }
 }
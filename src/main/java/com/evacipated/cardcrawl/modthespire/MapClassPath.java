@@ -0,0 +1,82 @@
+package com.evacipated.cardcrawl.modthespire;
+
+import javassist.ClassPath;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.HashMap;
+import java.util.Map;
+
+// A single ClassPath over many in-memory classes
+// Replaces one ByteArrayClassPath per class, which javassist would walk one by one on every lookup
+public class MapClassPath implements ClassPath
+{
+    private final Map<String, byte[]> classes;
+    private final String name;
+
+    // The map is copied, later changes to it aren't seen
+    public MapClassPath(String name, Map<String, byte[]> classes)
+    {
+        this.name = name;
+        this.classes = new HashMap<>(classes);
+    }
+
+    @Override
+    public InputStream openClassfile(String classname)
+    {
+        byte[] b = classes.get(classname);
+        if (b == null) {
+            return null;
+        }
+        return new ByteArrayInputStream(b);
+    }
+
+    @Override
+    public URL find(String classname)
+    {
+        byte[] b = classes.get(classname);
+        if (b == null) {
+            return null;
+        }
+        try {
+            return new URL("mts", name, -1, "/" + classname.replace('.', '/') + ".class", new URLStreamHandler()
+            {
+                @Override
+                protected URLConnection openConnection(URL u)
+                {
+                    return new URLConnection(u)
+                    {
+                        @Override
+                        public void connect()
+                        {
+                        }
+
+                        @Override
+                        public InputStream getInputStream() throws IOException
+                        {
+                            return new ByteArrayInputStream(b);
+                        }
+                    };
+                }
+            });
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public String toString()
+    {
+        return "map:" + name + " (" + classes.size() + " classes)";
+    }
+}
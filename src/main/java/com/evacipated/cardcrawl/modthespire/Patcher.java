@@ -1,9 +1,17 @@
 package com.evacipated.cardcrawl.modthespire;
 
+import com.evacipated.cardcrawl.modthespire.cache.FileHashCache;
+import com.evacipated.cardcrawl.modthespire.cache.JarIndexCache;
+import com.evacipated.cardcrawl.modthespire.cache.LocatorCache;
+import com.evacipated.cardcrawl.modthespire.cache.PatchDependencies;
+import com.evacipated.cardcrawl.modthespire.cache.PatchedClassCache;
+import com.evacipated.cardcrawl.modthespire.finders.ExprIndex;
 import com.evacipated.cardcrawl.modthespire.lib.*;
 import com.evacipated.cardcrawl.modthespire.patcher.*;
 import com.evacipated.cardcrawl.modthespire.patcher.InsertPatchInfo.LineNumberAndPatchType;
 import com.evacipated.cardcrawl.modthespire.patcher.javassist.MyCodeConverter;
+import com.evacipated.cardcrawl.modthespire.scanner.JarIndex;
+import com.evacipated.cardcrawl.modthespire.scanner.JarScanner;
 import javassist.*;
 import javassist.bytecode.DuplicateMemberException;
 import javassist.expr.ExprEditor;
@@ -12,22 +20,32 @@ import org.scannotation.AnnotationDB;
 
 import javax.swing.*;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Patcher {
     public static Map<URL, AnnotationDB> annotationDBMap = new HashMap<>();
+    private static Map<URL, JarIndex> jarIndexMap = new LinkedHashMap<>();
+    private static Map<String, JarIndex.PatchClass> patchClassMap = new HashMap<>();
     private static Map<Class<?>, EnumBusterReflect> enumBusterMap = new HashMap<>();
     private static TreeSet<PatchInfo> patchInfos = new TreeSet<>(new PatchInfoComparator());
+    private static PatchDependencies dependencies = new PatchDependencies();
+    // Patched classes taken from a previous run instead of being patched again
+    private static Map<String, byte[]> reusedClasses = new HashMap<>();
 
     public static void initializeMods(ClassLoader loader, ModInfo... modInfos) throws ClassNotFoundException, InvocationTargetException, IllegalAccessException
     {
         for (ModInfo info : modInfos) {
-            if (annotationDBMap.containsKey(info.jarURL)) {
-                Set<String> initializers = annotationDBMap.get(info.jarURL).getAnnotationIndex().get(SpireInitializer.class.getName());
+            if (jarIndexMap.containsKey(info.jarURL)) {
+                Set<String> initializers = jarIndexMap.get(info.jarURL).getAnnotated(SpireInitializer.class.getName());
                 if (initializers != null) {
                     System.out.println(" - " + info.Name);
                     for (String initializer : initializers) {
@@ -66,28 +84,119 @@ public class Patcher {
 
     public static List<Iterable<String>> findPatches(URL[] urls, ModInfo[] modInfos) throws IOException
     {
+        List<URL> scanUrls = new ArrayList<>();
+        for (int i = 0; i < urls.length; ++i) {
+            if (modInfos == null || modInfos[i].MTS_Version.compareTo(Loader.MTS_VERSION) <= 0) {
+                scanUrls.add(urls[i]);
+            }
+        }
+        scanArchives(scanUrls.toArray(new URL[0]));
+
         List<Iterable<String>> patchSetList = new ArrayList<>();
         for (int i = 0; i < urls.length; ++i) {
             if (modInfos == null || modInfos[i].MTS_Version.compareTo(Loader.MTS_VERSION) <= 0) {
-                AnnotationDB db;
-                if (annotationDBMap.containsKey(urls[i])) {
-                    db = annotationDBMap.get(urls[i]);
-                } else {
-                    db = new AnnotationDB();
-                    annotationDBMap.put(urls[i], db);
-                }
-                db.scanArchives(urls[i]);
-                patchSetList.add(db.getAnnotationIndex().get(SpirePatch.class.getName()));
-                patchSetList.add(db.getAnnotationIndex().get(SpirePatches.class.getName()));
+                JarIndex index = scanArchive(urls[i]);
+                patchSetList.add(index.getAnnotated(SpirePatch.class.getName()));
+                patchSetList.add(index.getAnnotated(SpirePatches.class.getName()));
             } else {
                 String str = "ERROR: " + modInfos[i].Name + " requires ModTheSpire v" + modInfos[i].MTS_Version + " or greater!";
                 System.out.println(str);
                 JOptionPane.showMessageDialog(null, str);
             }
         }
+        FileHashCache.save();
         return patchSetList;
     }
 
+    // Each jar is only read once per launch, every later phase works from its JarIndex
+    private static JarIndex scanArchive(URL url) throws IOException
+    {
+        JarIndex index = jarIndexMap.get(url);
+        if (index == null) {
+            index = JarIndexCache.scan(url);
+            addIndex(url, index);
+        }
+        return index;
+    }
+
+    // Scans every jar not yet indexed, spread over Loader.SCAN_THREADS threads
+    // Indexes are stored in the order given, so mod ordering doesn't depend on which scan finishes first
+    private static void scanArchives(URL... urls) throws IOException
+    {
+        List<URL> toScan = new ArrayList<>();
+        for (URL url : urls) {
+            if (!jarIndexMap.containsKey(url) && !toScan.contains(url)) {
+                toScan.add(url);
+            }
+        }
+
+        if (Loader.SCAN_THREADS <= 1 || toScan.size() <= 1) {
+            for (URL url : toScan) {
+                scanArchive(url);
+            }
+            return;
+        }
+
+        ExecutorService executor = newExecutor(Math.min(Loader.SCAN_THREADS, toScan.size()), "MTS jar scanner");
+        try {
+            List<Future<JarIndex>> futures = new ArrayList<>();
+            for (URL url : toScan) {
+                futures.add(executor.submit(() -> JarIndexCache.scan(url)));
+            }
+            for (int i = 0; i < toScan.size(); ++i) {
+                try {
+                    addIndex(toScan.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException("Failed to scan " + toScan.get(i), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while scanning " + toScan.get(i), e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ExecutorService newExecutor(int threads, String name)
+    {
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static void addIndex(URL url, JarIndex index)
+    {
+        jarIndexMap.put(url, index);
+        annotationDBMap.put(url, index.toAnnotationDB());
+        // First jar wins, same as looking the class up in the ClassPool
+        for (Map.Entry<String, JarIndex.PatchClass> entry : index.getPatchClasses().entrySet()) {
+            patchClassMap.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        SwitchMapIndex.addModSwitchMaps(index.getSwitchMaps());
+    }
+
+    private static JarIndex.PatchClass findPatchClass(ClassPool pool, String className) throws IOException, NotFoundException
+    {
+        JarIndex.PatchClass patchClass = patchClassMap.get(className);
+        if (patchClass == null) {
+            // Not from a scanned jar, read it on its own
+            URL url = pool.find(className);
+            if (url == null) {
+                throw new NotFoundException(className);
+            }
+            try (InputStream in = url.openStream()) {
+                patchClass = JarScanner.scanClass(in).getPatchClass(className);
+            }
+        }
+        return patchClass;
+    }
+
     public static HashSet<CtClass> patchEnums(ClassLoader loader, ClassPool pool, ModInfo[] modInfos)
         throws IOException, ClassNotFoundException, NotFoundException, CannotCompileException
     {
@@ -103,43 +212,27 @@ public class Patcher {
     {
         HashSet<CtClass> ctClasses = new HashSet<>();
 
-        AnnotationDB db = new AnnotationDB();
-        db.setScanClassAnnotations(false);
-        db.setScanMethodAnnotations(false);
-        db.scanArchives(urls);
-
-        Set<String> annotations = db.getAnnotationIndex().get(SpireEnum.class.getName());
-        if (annotations == null) {
-            return ctClasses;
-        }
+        scanArchives(urls);
 
         boolean hasPrintedWarning = false;
 
-        for (String s : annotations) {
-            Class<?> cls = loader.loadClass(s);
-            for (Field field : cls.getDeclaredFields()) {
-                SpireEnum spireEnum = field.getDeclaredAnnotation(SpireEnum.class);
-                if (spireEnum != null) {
-                    String enumName = field.getName();
-                    if (!spireEnum.name().isEmpty()) {
-                        enumName = spireEnum.name();
-                    }
-
-                    // Patch new field onto the enum
-                    try {
-                        CtClass ctClass = pool.get(field.getType().getName());
-                        CtField f = new CtField(ctClass, enumName, ctClass);
-                        f.setModifiers(Modifier.PUBLIC | Modifier.STATIC | Modifier.FINAL | Modifier.ENUM);
-                        ctClass.addField(f);
-                        ctClasses.add(ctClass);
-                    } catch (DuplicateMemberException ignore) {
-                        // Field already exists
-                        if (!Loader.DEBUG && !hasPrintedWarning) {
-                            hasPrintedWarning = true;
-                            System.out.println();
-                        }
-                        System.out.println(String.format("Warning: @SpireEnum %s %s is already defined.", field.getType().getName(), enumName));
+        for (URL url : urls) {
+            for (JarIndex.EnumField enumField : scanArchive(url).getEnumFields()) {
+                // Patch new field onto the enum
+                try {
+                    CtClass ctClass = pool.get(enumField.enumType);
+                    CtField f = new CtField(ctClass, enumField.enumName, ctClass);
+                    f.setModifiers(Modifier.PUBLIC | Modifier.STATIC | Modifier.FINAL | Modifier.ENUM);
+                    ctClass.addField(f);
+                    ctClasses.add(ctClass);
+                    dependencies.addEager(ctClass.getName());
+                } catch (DuplicateMemberException ignore) {
+                    // Field already exists
+                    if (!Loader.DEBUG && !hasPrintedWarning) {
+                        hasPrintedWarning = true;
+                        System.out.println();
                     }
+                    System.out.println(String.format("Warning: @SpireEnum %s %s is already defined.", enumField.enumType, enumField.enumName));
                 }
             }
         }
@@ -160,48 +253,71 @@ public class Patcher {
     public static void bustEnums(ClassLoader loader, URL... urls)
         throws IOException, ClassNotFoundException, NoSuchFieldException, IllegalAccessException
     {
-        AnnotationDB db = new AnnotationDB();
-        db.setScanClassAnnotations(false);
-        db.setScanMethodAnnotations(false);
-        db.scanArchives(urls);
-
-        Set<String> annotations = db.getAnnotationIndex().get(SpireEnum.class.getName());
-        if (annotations == null) {
-            return;
+        scanArchives(urls);
+
+        // Gather every new constant per enum type first, so each enum is only grown once
+        // Everything needed comes from the jar index, the classes holding @SpireEnum fields are only
+        // loaded to assign them, once their constants exist
+        Map<String, List<JarIndex.EnumField>> toBust = new LinkedHashMap<>();
+        for (URL url : urls) {
+            for (JarIndex.EnumField enumField : scanArchive(url).getEnumFields()) {
+                toBust.computeIfAbsent(enumField.enumType, k -> new ArrayList<>()).add(enumField);
+            }
         }
 
-        for (String s : annotations) {
-            Class<?> cls = loader.loadClass(s);
-            for (Field field : cls.getDeclaredFields()) {
-                SpireEnum spireEnum = field.getDeclaredAnnotation(SpireEnum.class);
-                if (spireEnum != null) {
-                    String enumName = field.getName();
-                    if (!spireEnum.name().isEmpty()) {
-                        enumName = spireEnum.name();
-                    }
+        for (Map.Entry<String, List<JarIndex.EnumField>> entry : toBust.entrySet()) {
+            Class<?> enumType = loader.loadClass(entry.getKey());
+            EnumBusterReflect buster;
+            if (enumBusterMap.containsKey(enumType)) {
+                buster = enumBusterMap.get(enumType);
+            } else {
+                // Undo history is only kept for debugging
+                buster = new EnumBusterReflect(loader, enumType, Loader.DEBUG);
+                enumBusterMap.put(enumType, buster);
+            }
 
-                    EnumBusterReflect buster;
-                    if (enumBusterMap.containsKey(field.getType())) {
-                        buster = enumBusterMap.get(field.getType());
-                    } else {
-                        buster = new EnumBusterReflect(loader, field.getType());
-                        enumBusterMap.put(field.getType(), buster);
-                    }
-                    Enum<?> enumValue = buster.make(enumName);
-                    buster.addByValue(enumValue);
-                    try {
-                        Field constantField = field.getType().getField(enumName);
-                        ReflectionHelper.setStaticFinalField(constantField, enumValue);
-                    } catch (NoSuchFieldException ignored) {
-                    }
+            List<Enum<?>> enumValues = new ArrayList<>();
+            for (JarIndex.EnumField enumField : entry.getValue()) {
+                enumValues.add(buster.make(enumField.enumName));
+            }
+            buster.addByValues(enumValues);
 
-                    field.setAccessible(true);
-                    field.set(null, enumValue);
+            for (int i = 0; i < enumValues.size(); ++i) {
+                JarIndex.EnumField enumField = entry.getValue().get(i);
+                Enum<?> enumValue = enumValues.get(i);
+                try {
+                    Field constantField = enumType.getField(enumField.enumName);
+                    ReflectionHelper.setStaticFinalField(constantField, enumValue);
+                } catch (NoSuchFieldException ignored) {
                 }
+
+                Field field = loader.loadClass(enumField.owner).getDeclaredField(enumField.field);
+                field.setAccessible(true);
+                field.set(null, enumValue);
             }
         }
     }
 
+    public static PatchDependencies getDependencies()
+    {
+        return dependencies;
+    }
+
+    // Takes every class whose patches are unchanged since the previous run from its output
+    // Call after all patches are injected, before finalizePatches
+    public static void reuseClasses(ClassPool pool, PatchedClassCache.PreviousRun previous)
+    {
+        reusedClasses.clear();
+        if (previous == null) {
+            return;
+        }
+        for (String name : dependencies.reusable(pool, previous.dependencies, previous.classes.keySet())) {
+            reusedClasses.put(name, previous.classes.get(name));
+            dependencies.keepReferences(previous.dependencies, name);
+        }
+        System.out.println("Reusing " + reusedClasses.size() + " patched classes from a previous run");
+    }
+
     public static void finalizePatches(ClassLoader loader) throws Exception
     {
         System.out.printf("Injecting patches...");
@@ -209,40 +325,184 @@ public class Patcher {
             System.out.println();
             System.out.println();
         }
-        for (PatchInfo p : patchInfos) {
-            if (Loader.DEBUG) {
-                p.debugPrint();
-            }
-            try {
-                p.doPatch();
-            } catch (Exception e) {
-                if (!Loader.DEBUG) {
-                    System.out.println();
+        List<PatchInfo> patches = new ArrayList<>(patchInfos);
+        if (!reusedClasses.isEmpty()) {
+            patches.removeIf(p -> reusedClasses.containsKey(p.getTargetClass().getName()));
+        }
+        if (Loader.FUSE_INSTRUMENT) {
+            patches = fuseInstrumentPatches(patches);
+        }
+        applyPatches(patches);
+        patchInfos.clear();
+        ExprIndex.clear();
+        if (Loader.DEBUG) {
+            StackMapBatch.printStats();
+            LocatorCache.printStats();
+        }
+        System.out.println("Done.");
+    }
+
+    private static void applyPatches(Iterable<PatchInfo> patches) throws Exception
+    {
+        StackMapBatch batch = new StackMapBatch();
+        try {
+            for (PatchInfo p : patches) {
+                if (Loader.DEBUG) {
                     p.debugPrint();
                 }
-                throw e;
+                try {
+                    if (StackMapBatch.canBatch(p)) {
+                        batch.add(p);
+                    } else {
+                        batch.commit();
+                    }
+                    p.doPatch();
+                } catch (Exception e) {
+                    if (!Loader.DEBUG) {
+                        System.out.println();
+                        p.debugPrint();
+                    }
+                    throw e;
+                }
+                if (Loader.DEBUG) {
+                    System.out.println();
+                }
             }
-            if (Loader.DEBUG) {
-                System.out.println();
+            batch.commit();
+        } finally {
+            batch.restore();
+        }
+    }
+
+    // Instrument patches on the same method are merged into one, in place of the first of them
+    // All Instrument patches sort together, so this doesn't move them past any other kind of patch.
+    private static List<PatchInfo> fuseInstrumentPatches(List<PatchInfo> patches)
+    {
+        Map<CtBehavior, List<InstrumentPatchInfo>> byMethod = new HashMap<>();
+        for (PatchInfo p : patches) {
+            if (p instanceof InstrumentPatchInfo) {
+                byMethod.computeIfAbsent(((InstrumentPatchInfo) p).getTargetMethod(), k -> new ArrayList<>()).add((InstrumentPatchInfo) p);
             }
         }
-        patchInfos.clear();
-        System.out.println("Done.");
+
+        List<PatchInfo> fused = new ArrayList<>();
+        for (PatchInfo p : patches) {
+            if (!(p instanceof InstrumentPatchInfo)) {
+                fused.add(p);
+                continue;
+            }
+            List<InstrumentPatchInfo> samePatches = byMethod.remove(((InstrumentPatchInfo) p).getTargetMethod());
+            if (samePatches == null) {
+                // Already merged
+                continue;
+            }
+            if (samePatches.size() == 1) {
+                fused.add(p);
+            } else {
+                if (Loader.DEBUG) {
+                    System.out.println("Fusing " + samePatches.size() + " Instrument patches on [" + ((InstrumentPatchInfo) p).getTargetMethod().getLongName() + "]");
+                }
+                fused.add(new FusedInstrumentPatchInfo(samePatches));
+            }
+        }
+        return fused;
     }
 
-    public static void compilePatches(ClassLoader loader, SortedMap<String, CtClass> ctClasses) throws CannotCompileException
+    // Returns the patched class bytes in the order they were defined
+    public static Map<String, byte[]> compilePatches(MTSClassLoader loader, SortedMap<String, CtClass> ctClasses) throws CannotCompileException, IOException
     {
         System.out.printf("Compiling patched classes...");
         if (Loader.DEBUG) {
             System.out.println();
         }
-        for (Map.Entry<String, CtClass> cls : ctClasses.entrySet()) {
+        List<CtClass> classes = new ArrayList<>(ctClasses.values());
+
+        // Serializing doesn't depend on order, defining does
+        long startTime = System.nanoTime();
+        List<CtClass> changed = new ArrayList<>();
+        for (CtClass cls : classes) {
+            if (!reusedClasses.containsKey(cls.getName())) {
+                changed.add(cls);
+                if (Loader.PATCH_CACHE) {
+                    dependencies.addReferences(cls);
+                }
+            }
+        }
+        byte[][] changedBytecode = toBytecode(changed);
+        byte[][] bytecode = new byte[classes.size()][];
+        for (int i = 0, j = 0; i < classes.size(); ++i) {
+            bytecode[i] = reusedClasses.get(classes.get(i).getName());
+            if (bytecode[i] == null) {
+                bytecode[i] = changedBytecode[j++];
+            }
+        }
+        reusedClasses.clear();
+        long bytecodeTime = System.nanoTime();
+
+        Map<String, byte[]> patchedClasses = new LinkedHashMap<>();
+        for (int i = 0; i < classes.size(); ++i) {
+            String name = classes.get(i).getName();
             if (Loader.DEBUG) {
-                System.out.println("  " + cls.getValue().getName());
+                System.out.println("  " + name);
+            }
+            if (Loader.LAZY_CLASSES) {
+                loader.addPendingClass(name, bytecode[i]);
+            } else {
+                try {
+                    loader.definePatchedClass(name, bytecode[i]);
+                } catch (LinkageError e) {
+                    throw new CannotCompileException(e);
+                }
             }
-            cls.getValue().toClass(loader, null);
+            patchedClasses.put(name, bytecode[i]);
         }
+        long defineTime = System.nanoTime();
+
         System.out.println("Done.");
+        System.out.println(" - Bytecode: " + ((bytecodeTime - startTime) / 1000000) + "ms");
+        if (Loader.LAZY_CLASSES) {
+            System.out.println(" - Define: on first load");
+        } else {
+            System.out.println(" - Define: " + ((defineTime - bytecodeTime) / 1000000) + "ms");
+        }
+        return patchedClasses;
+    }
+
+    private static byte[][] toBytecode(List<CtClass> classes) throws CannotCompileException, IOException
+    {
+        byte[][] bytecode = new byte[classes.size()][];
+        if (Loader.BYTECODE_THREADS <= 1 || classes.size() <= 1) {
+            for (int i = 0; i < classes.size(); ++i) {
+                bytecode[i] = classes.get(i).toBytecode();
+            }
+            return bytecode;
+        }
+
+        ExecutorService executor = newExecutor(Math.min(Loader.BYTECODE_THREADS, classes.size()), "MTS bytecode");
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (CtClass cls : classes) {
+                futures.add(executor.submit(() -> cls.toBytecode()));
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                try {
+                    bytecode[i] = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CannotCompileException) {
+                        throw (CannotCompileException) e.getCause();
+                    } else if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new CannotCompileException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CannotCompileException(e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return bytecode;
     }
 
     public static HashSet<CtClass> injectPatches(ClassLoader loader, ClassPool pool, List<Iterable<String>> class_names) throws Exception
@@ -255,6 +515,7 @@ public class Patcher {
             }
             PatchInfo.nextMod();
         }
+        LocatorCache.save();
         return ctClasses;
     }
 
@@ -266,28 +527,21 @@ public class Patcher {
         HashSet<CtClass> ctClasses = new HashSet<>();
         for (String cls_name : class_names) {
             CtClass ctPatchClass = pool.get(cls_name);
-            
-            SpirePatch[] patchArr = null;
-            SpirePatches patches = (SpirePatches) ctPatchClass.getAnnotation(SpirePatches.class);
-            if (patches != null) {
-                patchArr = patches.value();
-            } else {
-                SpirePatch patch = (SpirePatch) ctPatchClass.getAnnotation(SpirePatch.class);
-                if (patch != null) {
-                    patchArr = new SpirePatch[]{patch};
-                }
+            JarIndex.PatchClass patchClass = findPatchClass(pool, cls_name);
+            if (patchClass == null) {
+                throw new PatchingException(ctPatchClass, "Not annotated with @SpirePatch.");
             }
 
-            for (SpirePatch patch : patchArr) {
+            for (JarIndex.Patch patch : patchClass.patches) {
                 CtClass ctClsToPatch = null;
                 try {
-                    if (!patch.clz().equals(void.class)) {
-                        ctClsToPatch = pool.get(patch.clz().getName());
-                    } else if (!patch.cls().isEmpty()) {
-                        ctClsToPatch = pool.get(patch.cls());
+                    if (patch.clz != null) {
+                        ctClsToPatch = pool.get(patch.clz);
+                    } else if (!patch.cls.isEmpty()) {
+                        ctClsToPatch = pool.get(patch.cls);
                     }
                 } catch (NotFoundException e) {
-                    if (patch.optional()) {
+                    if (patch.optional) {
                         continue;
                     }
                     throw new PatchingException(ctPatchClass.getName(), e);
@@ -301,7 +555,7 @@ public class Patcher {
                     if (ctParamTypes == null) {
                         ctParamTypes = patchParamTypes(pool, patch);
                     }
-                    if (patch.method().equals(SpirePatch.CONSTRUCTOR)) {
+                    if (patch.method.equals(SpirePatch.CONSTRUCTOR)) {
                         if (ctParamTypes == null) {
                             CtConstructor[] constructors = ctClsToPatch.getDeclaredConstructors();
                             if (constructors.length == 1) {
@@ -312,59 +566,64 @@ public class Patcher {
                         } else {
                             ctMethodToPatch = ctClsToPatch.getDeclaredConstructor(ctParamTypes);
                         }
-                    } else if (patch.method().equals(SpirePatch.STATICINITIALIZER)) {
+                    } else if (patch.method.equals(SpirePatch.STATICINITIALIZER)) {
                         ctMethodToPatch = ctClsToPatch.getClassInitializer();
                         if (ctMethodToPatch == null) {
                             System.out.println("No class initializer, making one");
                             ctMethodToPatch = ctClsToPatch.makeClassInitializer();
                         }
-                    } else if (patch.method().equals(SpirePatch.CLASS)) {
+                    } else if (patch.method.equals(SpirePatch.CLASS)) {
                         patchInfos.add(new ClassPatchInfo(ctClsToPatch, ctPatchClass));
                         ctClasses.add(ctClsToPatch);
                         ctClasses.add(ctPatchClass);
+                        // Both get the same generated field name
+                        dependencies.add(pool, ctClsToPatch.getName(), cls_name);
+                        dependencies.add(pool, ctPatchClass.getName(), cls_name);
+                        dependencies.link(ctClsToPatch.getName(), ctPatchClass.getName());
                     } else {
                         if (ctParamTypes == null) {
-                            CtMethod[] methods = ctClsToPatch.getDeclaredMethods(patch.method());
+                            CtMethod[] methods = ctClsToPatch.getDeclaredMethods(patch.method);
                             if (methods.length == 1) {
                                 ctMethodToPatch = methods[0];
                             } else if (methods.length == 0) {
                                 throw new NoSuchMethodException(String.format("Patch %s:\nNo method named [%s] found on\nclass [%s]",
                                     ctPatchClass.getName(),
-                                    patch.method(),
-                                    patchClassName(patch)
+                                    patch.method,
+                                    patch.targetName()
                                 ));
                             } else {
                                 throw new MissingParamTypesException(ctPatchClass, patch);
                             }
                         } else {
-                            ctMethodToPatch = ctClsToPatch.getDeclaredMethod(patch.method(), ctParamTypes);
+                            ctMethodToPatch = ctClsToPatch.getDeclaredMethod(patch.method, ctParamTypes);
                         }
                     }
                 } catch (NotFoundException e) {
                     throw new NoSuchMethodException(String.format("Patch %s:\nNo method [%s(%s)] found on\nclass [%s]",
                         ctPatchClass.getName(),
-                        patch.method(),
+                        patch.method,
                         patchParamTypesString(patch),
-                        patchClassName(patch)
+                        patch.targetName()
                     ));
                 }
                 if (ctMethodToPatch == null)
                     continue;
 
-                for (CtMethod m : ctPatchClass.getDeclaredMethods()) {
+                for (JarIndex.PatchMethod patchMethod : patchClass.methods) {
+                    CtMethod m = ctPatchClass.getMethod(patchMethod.name, patchMethod.descriptor);
                     PatchInfo p = null;
-                    if (m.getName().equals("Prefix") || m.hasAnnotation(SpirePrefixPatch.class)) {
+                    if (patchMethod.kind == JarIndex.PatchKind.PREFIX) {
                         p = new PrefixPatchInfo(ctMethodToPatch, m);
-                    } else if (m.getName().equals("Postfix") || m.hasAnnotation(SpirePostfixPatch.class)) {
+                    } else if (patchMethod.kind == JarIndex.PatchKind.POSTFIX) {
                         p = new PostfixPatchInfo(ctMethodToPatch, m);
-                    } else if (m.getName().equals("Locator")) {
+                    } else if (patchMethod.kind == JarIndex.PatchKind.LOCATOR) {
                         continue;
-                    } else if (m.getName().equals("Insert") || m.hasAnnotation(SpireInsertPatch.class)) {
-                        SpireInsertPatch insertPatch = (SpireInsertPatch) m.getAnnotation(SpireInsertPatch.class);
+                    } else if (patchMethod.kind == JarIndex.PatchKind.INSERT) {
+                        JarIndex.InsertPatch insertPatch = patchMethod.insert;
 
                         LocatorInfo locatorInfo = null;
-                        if (insertPatch != null && !insertPatch.locator().equals(SpireInsertPatch.NONE.class)) {
-                            locatorInfo = new LocatorInfo(ctMethodToPatch, loader.loadClass(insertPatch.locator().getName()));
+                        if (insertPatch != null && insertPatch.locator != null) {
+                            locatorInfo = new LocatorInfo(ctMethodToPatch, loader.loadClass(insertPatch.locator));
                         }
 
                         if (!isInsertPatchValid(insertPatch, locatorInfo)) {
@@ -384,30 +643,31 @@ public class Patcher {
                         }
 
                         if (insertPatch != null) {
-                            if (insertPatch.loc() >= 0) {
-                                locs.add(new LineNumberAndPatchType(insertPatch.loc()));
+                            if (insertPatch.loc >= 0) {
+                                locs.add(new LineNumberAndPatchType(insertPatch.loc));
                             }
-                            if (insertPatch.rloc() >= 0) {
+                            if (insertPatch.rloc >= 0) {
                                 locs.add(new LineNumberAndPatchType(
-                                    ctMethodToPatch.getMethodInfo().getLineNumber(0) + insertPatch.rloc(), insertPatch.rloc()));
+                                    ctMethodToPatch.getMethodInfo().getLineNumber(0) + insertPatch.rloc, insertPatch.rloc));
                             }
-                            for (int i = 0; i < insertPatch.locs().length; i++) {
-                                locs.add(new LineNumberAndPatchType(insertPatch.locs()[i]));
+                            for (int i = 0; i < insertPatch.locs.length; i++) {
+                                locs.add(new LineNumberAndPatchType(insertPatch.locs[i]));
                             }
-                            for (int i = 0; i < insertPatch.rlocs().length; i++) {
+                            for (int i = 0; i < insertPatch.rlocs.length; i++) {
                                 locs.add(new LineNumberAndPatchType(
-                                    ctMethodToPatch.getMethodInfo().getLineNumber(0) + insertPatch.rlocs()[i], insertPatch.rlocs()[i]));
+                                    ctMethodToPatch.getMethodInfo().getLineNumber(0) + insertPatch.rlocs[i], insertPatch.rlocs[i]));
                             }
                         }
 
-                        p = new InsertPatchInfo(insertPatch, locs, ctMethodToPatch, m);
+                        p = new InsertPatchInfo(insertPatch != null ? insertPatch.localvars : null, locs, ctMethodToPatch, m);
                     
-                    } else if (m.getName().equals("Instrument")) {
+                    } else if (patchMethod.kind == JarIndex.PatchKind.INSTRUMENT) {
                         p = new InstrumentPatchInfo(ctMethodToPatch, loader.loadClass(cls_name).getDeclaredMethod(m.getName()));
-                    } else if (m.getName().equals("Replace")) {
+                    } else if (patchMethod.kind == JarIndex.PatchKind.REPLACE) {
                         p = new ReplacePatchInfo(ctMethodToPatch, m);
-                    } else if (m.getName().equals("Raw")) {
+                    } else if (patchMethod.kind == JarIndex.PatchKind.RAW) {
                         p = new RawPatchInfo(ctMethodToPatch, findRawMethod(loader.loadClass(cls_name), m.getName()));
+                        dependencies.addRaw(pool, ctClsToPatch.getName(), cls_name);
                     }
 
                     if (p != null) {
@@ -416,45 +676,41 @@ public class Patcher {
                 }
 
                 ctClasses.add(ctClsToPatch);
+                dependencies.add(pool, ctClsToPatch.getName(), cls_name);
             }
         }
 
         return ctClasses;
     }
 
-    private static boolean isInsertPatchValid(SpireInsertPatch insertPatch, LocatorInfo locatorInfo) {
+    private static boolean isInsertPatchValid(JarIndex.InsertPatch insertPatch, LocatorInfo locatorInfo) {
         if (locatorInfo != null) {
             return true;
         }
         if (insertPatch != null) {
-            if (insertPatch.loc() != -1 || insertPatch.rloc() != -1
-                || insertPatch.locs().length != 0 || insertPatch.rlocs().length != 0) {
+            if (insertPatch.loc != -1 || insertPatch.rloc != -1
+                || insertPatch.locs.length != 0 || insertPatch.rlocs.length != 0) {
                 return true;
             }
         }
         return false;
     }
 
-    private static CtClass[] patchParamTypes(ClassPool pool, SpirePatch patch) throws NotFoundException {
-        String[] def = {"DEFAULT"};
-        if (Arrays.equals(patch.paramtypes(), def)) {
+    private static CtClass[] patchParamTypes(ClassPool pool, JarIndex.Patch patch) throws NotFoundException {
+        if (patch.paramtypes == null) {
             return null;
         }
 
-        return pool.get(patch.paramtypes());
+        return pool.get(patch.paramtypes);
     }
 
-    private static CtClass[] patchParamTypez(ClassPool pool, SpirePatch patch) throws NotFoundException
+    private static CtClass[] patchParamTypez(ClassPool pool, JarIndex.Patch patch) throws NotFoundException
     {
-        if (patch.paramtypez().length == 1 && void.class.equals(patch.paramtypez()[0])) {
+        if (patch.paramtypez == null) {
             return null;
         }
 
-        String[] names = new String[patch.paramtypez().length];
-        for (int i = 0; i < patch.paramtypez().length; ++i) {
-            names[i] = patch.paramtypez()[i].getName();
-        }
-        return pool.get(names);
+        return pool.get(patch.paramtypez);
     }
 
     private static Method findRawMethod(Class<?> cls, String name) throws NoSuchMethodException
@@ -467,29 +723,15 @@ public class Patcher {
         throw new NoSuchMethodException();
     }
 
-    private static String patchParamTypesString(SpirePatch patch)
+    private static String patchParamTypesString(JarIndex.Patch patch)
     {
-        if (patch.paramtypez().length == 1 && void.class.equals(patch.paramtypez()[0])) {
-            String[] def = {"DEFAULT"};
-            if (Arrays.equals(patch.paramtypes(), def))
+        if (patch.paramtypez == null) {
+            if (patch.paramtypes == null)
                 return "";
 
-            return String.join(", ", patch.paramtypes());
-        } else {
-            String[] tmp = new String[patch.paramtypez().length];
-            for (int i=0; i<patch.paramtypez().length; ++i) {
-                tmp[i] = patch.paramtypez()[i].getName();
-            }
-            return String.join(", ", tmp);
-        }
-    }
-
-    private static String patchClassName(SpirePatch patch)
-    {
-        if (patch.clz().equals(void.class)) {
-            return patch.cls();
+            return String.join(", ", patch.paramtypes);
         } else {
-            return patch.clz().getName();
+            return String.join(", ", patch.paramtypez);
         }
     }
 
@@ -499,80 +741,98 @@ public class Patcher {
         MyCodeConverter.reset();
 
         HashSet<CtClass> ctClasses = new HashSet<>();
-        for (AnnotationDB db : annotationDBMap.values()) {
-            Set<String> classNames = db.getAnnotationIndex().get(SpireOverride.class.getName());
-            if (classNames != null) {
-                for (String className : classNames) {
-                    if (Loader.DEBUG) {
-                        System.out.println("Class: [" + className + "]");
-                    }
-                    try {
-                        CtClass cc = pool.get(className);
-
-                        for (CtMethod ctMethod : cc.getDeclaredMethods()) {
-                            if (ctMethod.hasAnnotation(SpireOverride.class)) {
-                                CtMethod superMethod = findSuperMethod(ctMethod);
-                                if (superMethod == null) {
-                                    throw new PatchingException(ctMethod, "Has no matching method signature in any superclass");
-                                }
+        // Redirects are collected per superclass first, so each superclass is converted in a single pass
+        Map<CtClass, MyCodeConverter> converters = new LinkedHashMap<>();
+        Map<CtClass, Set<String>> redirected = new HashMap<>();
+        List<CtMethod> overridingMethods = new ArrayList<>();
+        for (JarIndex index : jarIndexMap.values()) {
+            for (Map.Entry<String, List<JarIndex.Method>> overrides : index.getOverrides().entrySet()) {
+                String className = overrides.getKey();
+                if (Loader.DEBUG) {
+                    System.out.println("Class: [" + className + "]");
+                }
+                try {
+                    CtClass cc = pool.get(className);
 
-                                if (Loader.DEBUG) {
-                                    System.out.println(" - Overriding [" + superMethod.getLongName() + "]");
-                                    System.out.println("      Fixing invocations in superclass " + superMethod.getDeclaringClass().getSimpleName() + "...");
-                                }
+                    for (JarIndex.Method override : overrides.getValue()) {
+                        CtMethod ctMethod = cc.getMethod(override.name, override.descriptor);
+                        CtMethod superMethod = findSuperMethod(ctMethod);
+                        if (superMethod == null) {
+                            throw new PatchingException(ctMethod, "Has no matching method signature in any superclass");
+                        }
+
+                        if (Loader.DEBUG) {
+                            System.out.println(" - Overriding [" + superMethod.getLongName() + "]");
+                        }
 
-                                MyCodeConverter codeConverter = new MyCodeConverter();
-                                codeConverter.redirectSpecialMethodCall(superMethod);
-                                superMethod.getDeclaringClass().instrument(codeConverter);
+                        // A second override of the same method would find nothing left to redirect
+                        CtClass superClass = superMethod.getDeclaringClass();
+                        if (redirected.computeIfAbsent(superClass, k -> new HashSet<>()).add(superMethod.getLongName())) {
+                            converters.computeIfAbsent(superClass, k -> new MyCodeConverter()).redirectSpecialMethodCall(superMethod);
+                        }
+                        overridingMethods.add(ctMethod);
+                        ctClasses.add(superClass);
+                        ctClasses.add(ctMethod.getDeclaringClass());
+                        dependencies.addEager(superClass.getName());
+                        dependencies.addEager(ctMethod.getDeclaringClass().getName());
+                    }
+                } catch (NotFoundException | CannotCompileException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
 
+        try {
+            for (Map.Entry<CtClass, MyCodeConverter> converter : converters.entrySet()) {
+                if (Loader.DEBUG) {
+                    System.out.println("Fixing invocations in superclass " + converter.getKey().getSimpleName() + "...");
+                }
+                converter.getKey().instrument(converter.getValue());
+            }
+
+            for (CtMethod ctMethod : overridingMethods) {
+                if (Loader.DEBUG) {
+                    System.out.println("Replacing SpireSuper calls in [" + ctMethod.getLongName() + "]...");
+                }
+                ExprEditor exprEditor = new ExprEditor() {
+                    @Override
+                    public void edit(MethodCall m) throws CannotCompileException
+                    {
+                        try {
+                            if (m.getClassName().equals(SpireSuper.class.getName())) {
                                 if (Loader.DEBUG) {
-                                    System.out.println("      Replacing SpireSuper calls...");
+                                    System.out.println("        @ " + m.getLineNumber());
                                 }
-                                ExprEditor exprEditor = new ExprEditor() {
-                                    @Override
-                                    public void edit(MethodCall m) throws CannotCompileException
-                                    {
-                                        try {
-                                            if (m.getClassName().equals(SpireSuper.class.getName())) {
-                                                if (Loader.DEBUG) {
-                                                    System.out.println("        @ " + m.getLineNumber());
-                                                }
-                                                String src = " { ";
-                                                if (!ctMethod.getReturnType().equals(CtClass.voidType)) {
-                                                    src += "$_ = ";
-                                                }
-                                                src += "super." + ctMethod.getName() + "(";
-                                                for (int i=0; i<ctMethod.getParameterTypes().length; ++i) {
-                                                    if (i > 0) {
-                                                        src += ", ";
-                                                    }
-                                                    src += makeObjectCastedString(ctMethod.getParameterTypes()[i], "$1[" + i + "]");
-                                                }
-                                                src += ");\n";
-                                                if (ctMethod.getReturnType().equals(CtClass.voidType)) {
-                                                    src += "$_ = null;";
-                                                }
-                                                src += " }";
-                                                if (Loader.DEBUG) {
-                                                    System.out.println(src);
-                                                }
-                                                m.replace(src);
-                                            }
-                                        } catch (NotFoundException e) {
-                                            throw new CannotCompileException(e);
-                                        }
+                                String src = " { ";
+                                if (!ctMethod.getReturnType().equals(CtClass.voidType)) {
+                                    src += "$_ = ";
+                                }
+                                src += "super." + ctMethod.getName() + "(";
+                                for (int i=0; i<ctMethod.getParameterTypes().length; ++i) {
+                                    if (i > 0) {
+                                        src += ", ";
                                     }
-                                };
-                                ctMethod.instrument(exprEditor);
-                                ctClasses.add(superMethod.getDeclaringClass());
-                                ctClasses.add(ctMethod.getDeclaringClass());
+                                    src += makeObjectCastedString(ctMethod.getParameterTypes()[i], "$1[" + i + "]");
+                                }
+                                src += ");\n";
+                                if (ctMethod.getReturnType().equals(CtClass.voidType)) {
+                                    src += "$_ = null;";
+                                }
+                                src += " }";
+                                if (Loader.DEBUG) {
+                                    System.out.println(src);
+                                }
+                                m.replace(src);
                             }
+                        } catch (NotFoundException e) {
+                            throw new CannotCompileException(e);
                         }
-                    } catch (NotFoundException | CannotCompileException e) {
-                        throw new RuntimeException(e);
                     }
-                }
+                };
+                ctMethod.instrument(exprEditor);
             }
+        } catch (CannotCompileException e) {
+            throw new RuntimeException(e);
         }
 
         return ctClasses;
@@ -9,6 +9,8 @@ public class ReflectionHelper {
     private static final ReflectionFactory reflection =
         ReflectionFactory.getReflectionFactory();
 
+    private static sun.misc.Unsafe unsafe = null;
+
     public static void setStaticFinalField(
         Field field, Object value)
         throws NoSuchFieldException, IllegalAccessException {
@@ -29,4 +31,15 @@ public class ReflectionHelper {
         );
         fa.set(null, value);
     }
+
+    // Whether the class's static initializer has already run
+    public static boolean isInitialized(Class<?> cls)
+        throws NoSuchFieldException, IllegalAccessException {
+        if (unsafe == null) {
+            Field unsafeField = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            unsafe = (sun.misc.Unsafe) unsafeField.get(null);
+        }
+        return !unsafe.shouldBeInitialized(cls);
+    }
 }
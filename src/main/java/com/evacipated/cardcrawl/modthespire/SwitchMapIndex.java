@@ -0,0 +1,139 @@
+package com.evacipated.cardcrawl.modthespire;
+
+import com.evacipated.cardcrawl.modthespire.cache.FileHashCache;
+import com.google.gson.Gson;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Every $SwitchMap$ field in the game jar, keyed by field name
+// javac names these after the enum being switched on, ie $SwitchMap$com$megacrit$cardcrawl$cards$AbstractCard$CardColor
+// Built once and saved against the game jar's hash, so later launches don't read the game jar at all
+// Switch maps from mod jars are added by Patcher as it scans them
+class SwitchMapIndex
+{
+    private static final int FORMAT_VERSION = 1;
+    private static final String PREFIX = "$SwitchMap$";
+    private static final File FILE = new File(FileHashCache.CACHE_DIR, "switchmaps.json");
+
+    private static SwitchMapIndex instance = null;
+    private static Map<String, List<String>> modSwitchMaps = new LinkedHashMap<>();
+
+    private int format;
+    private String gameHash;
+    private Map<String, List<String>> switchMaps = new HashMap<>();
+
+    static String fieldName(Class<?> enumClass)
+    {
+        return PREFIX + enumClass.getName().replace('.', '$');
+    }
+
+    // Classes in the game jar holding the given switch map field
+    static List<String> getGameClasses(String fieldName) throws IOException
+    {
+        List<String> ret = get().switchMaps.get(fieldName);
+        return ret != null ? ret : Collections.emptyList();
+    }
+
+    // Classes in mod jars holding the given switch map field, in load order
+    static List<String> getModClasses(String fieldName)
+    {
+        List<String> ret = modSwitchMaps.get(fieldName);
+        return ret != null ? ret : Collections.emptyList();
+    }
+
+    static void addModSwitchMaps(Map<String, List<String>> switchMaps)
+    {
+        for (Map.Entry<String, List<String>> entry : switchMaps.entrySet()) {
+            modSwitchMaps.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+        }
+    }
+
+    static boolean isSwitchMap(String fieldName)
+    {
+        return fieldName.startsWith(PREFIX);
+    }
+
+    private static synchronized SwitchMapIndex get() throws IOException
+    {
+        if (instance != null) {
+            return instance;
+        }
+
+        File gameJar = new File(Loader.STS_JAR);
+        String hash = FileHashCache.hash(gameJar);
+        FileHashCache.save();
+
+        if (FILE.isFile()) {
+            try {
+                String data = new String(Files.readAllBytes(FILE.toPath()), StandardCharsets.UTF_8);
+                SwitchMapIndex index = new Gson().fromJson(data, SwitchMapIndex.class);
+                if (index != null && index.format == FORMAT_VERSION && hash.equals(index.gameHash) && index.switchMaps != null) {
+                    instance = index;
+                    return instance;
+                }
+            } catch (Exception e) {
+                System.out.println("Failed to read switch map index: " + e.getMessage());
+            }
+        }
+
+        if (Loader.DEBUG) {
+            System.out.println("Indexing game switch maps...");
+        }
+        instance = new SwitchMapIndex();
+        instance.format = FORMAT_VERSION;
+        instance.gameHash = hash;
+        instance.scan(gameJar);
+        try {
+            new File(FileHashCache.CACHE_DIR).mkdirs();
+            Files.write(FILE.toPath(), new Gson().toJson(instance).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("Failed to save switch map index: " + e.getMessage());
+        }
+        return instance;
+    }
+
+    private void scan(File jar) throws IOException
+    {
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                try (InputStream in = zip.getInputStream(entry)) {
+                    new ClassReader(in).accept(new ClassVisitor(Opcodes.ASM6)
+                    {
+                        private String className;
+
+                        @Override
+                        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+                        {
+                            className = name.replace('/', '.');
+                        }
+
+                        @Override
+                        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value)
+                        {
+                            if (isSwitchMap(name)) {
+                                switchMaps.computeIfAbsent(name, k -> new ArrayList<>()).add(className);
+                            }
+                            return null;
+                        }
+                    }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.evacipated.cardcrawl.modthespire.cache;
+
+import com.evacipated.cardcrawl.modthespire.lib.ConfigUtils;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Remembers the content hash of files (game jar, mod jars) between launches
+// A file is only re-hashed when its size or last modified time changes
+public class FileHashCache
+{
+    public static final String CACHE_DIR = ConfigUtils.CONFIG_DIR + File.separator + "cache";
+    private static final File HASHES_FILE = new File(CACHE_DIR, "hashes.json");
+
+    private static Map<String, Entry> entries = null;
+    private static boolean dirty = false;
+
+    private static class Entry
+    {
+        long size;
+        long modified;
+        String hash;
+    }
+
+    public static String hash(File file) throws IOException
+    {
+        String path = file.getCanonicalPath();
+        long size = file.length();
+        long modified = file.lastModified();
+
+        synchronized (FileHashCache.class) {
+            load();
+            Entry entry = entries.get(path);
+            if (entry != null && entry.size == size && entry.modified == modified) {
+                return entry.hash;
+            }
+        }
+
+        Entry entry = new Entry();
+        entry.size = size;
+        entry.modified = modified;
+        entry.hash = hashFile(file);
+        synchronized (FileHashCache.class) {
+            entries.put(path, entry);
+            dirty = true;
+        }
+        return entry.hash;
+    }
+
+    public static synchronized void save()
+    {
+        if (!dirty) {
+            return;
+        }
+        try {
+            new File(CACHE_DIR).mkdirs();
+            Gson gson = new GsonBuilder().setPrettyPrinting().create();
+            Files.write(HASHES_FILE.toPath(), gson.toJson(entries).getBytes(StandardCharsets.UTF_8));
+            dirty = false;
+        } catch (IOException e) {
+            System.out.println("Failed to save file hashes: " + e.getMessage());
+        }
+    }
+
+    private static void load()
+    {
+        if (entries != null) {
+            return;
+        }
+        if (HASHES_FILE.isFile()) {
+            try {
+                String data = new String(Files.readAllBytes(HASHES_FILE.toPath()), StandardCharsets.UTF_8);
+                Type type = new TypeToken<Map<String, Entry>>(){}.getType();
+                entries = new Gson().fromJson(data, type);
+            } catch (Exception e) {
+                System.out.println("Failed to read file hashes: " + e.getMessage());
+            }
+        }
+        if (entries == null) {
+            entries = new HashMap<>();
+        }
+    }
+
+    public static String hashFile(File file) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String hashBytes(byte[] b)
+    {
+        return toHex(newDigest().digest(b));
+    }
+
+    public static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String toHex(byte[] b)
+    {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] out = new char[b.length * 2];
+        for (int i = 0; i < b.length; ++i) {
+            out[i * 2] = digits[(b[i] >> 4) & 0xF];
+            out[i * 2 + 1] = digits[b[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,106 @@
+package com.evacipated.cardcrawl.modthespire.cache;
+
+import com.evacipated.cardcrawl.modthespire.Loader;
+import com.evacipated.cardcrawl.modthespire.scanner.JarIndex;
+import com.evacipated.cardcrawl.modthespire.scanner.JarScanner;
+import com.evacipated.cardcrawl.modthespire.scanner.PatchManifest;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// On-disk copy of each mod jar's JarIndex
+// Entries are keyed by the jar's canonical path and checked against its content hash,
+// which FileHashCache only recomputes when the jar's size or last modified time changes,
+// so an unchanged jar is never opened
+// The MTS version and jar are part of every entry too, so a new MTS scans jars again
+public class JarIndexCache
+{
+    private static final int FORMAT_VERSION = 5;
+    private static final String DIR = FileHashCache.CACHE_DIR + File.separator + "jarindex";
+
+    private static String mtsKey;
+
+    public static JarIndex scan(URL url) throws IOException
+    {
+        File jar = "file".equals(url.getProtocol()) ? PatchedClassCache.urlToFile(url) : null;
+        if (jar == null || !jar.isFile()) {
+            return JarScanner.scan(url);
+        }
+
+        String path = jar.getCanonicalPath();
+        String hash = FileHashCache.hash(jar);
+        File file = new File(DIR, FileHashCache.hashBytes(path.getBytes(StandardCharsets.UTF_8)) + ".ser");
+
+        String mts = mtsKey();
+        JarIndex index = load(file, mts, path, hash);
+        if (index != null) {
+            if (Loader.DEBUG) {
+                System.out.println("Using cached index for " + jar.getName());
+            }
+            return index;
+        }
+
+        index = PatchManifest.load(jar);
+        if (index != null) {
+            if (Loader.DEBUG) {
+                System.out.println("Using patch manifest for " + jar.getName());
+            }
+        } else {
+            index = JarScanner.scan(url);
+        }
+        save(file, mts, path, hash, index);
+        return index;
+    }
+
+    private static synchronized String mtsKey() throws IOException
+    {
+        if (mtsKey == null) {
+            mtsKey = String.valueOf(Loader.MTS_VERSION);
+            File mtsJar = PatchedClassCache.mtsJarFile();
+            if (mtsJar != null && mtsJar.isFile()) {
+                mtsKey += ":" + FileHashCache.hash(mtsJar);
+            }
+        }
+        return mtsKey;
+    }
+
+    private static JarIndex load(File file, String mts, String path, String hash)
+    {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || !mts.equals(in.readUTF()) || !path.equals(in.readUTF()) || !hash.equals(in.readUTF())) {
+                return null;
+            }
+            return (JarIndex) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.out.println("Jar index cache is corrupt, ignoring it: " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void save(File file, String mts, String path, String hash, JarIndex index)
+    {
+        new File(DIR).mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(mts);
+                out.writeUTF(path);
+                out.writeUTF(hash);
+                out.writeObject(index);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("Failed to save jar index cache: " + e.getMessage());
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.evacipated.cardcrawl.modthespire.cache;
+
+import com.evacipated.cardcrawl.modthespire.Loader;
+import com.google.gson.Gson;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.bytecode.AttributeInfo;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.LineNumberAttribute;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Remembers the lines each Locator found between launches
+// Keyed by the target class as it is when the locator runs (after enum patching, before any other
+// patch is applied), the target method's code, the jar the locator comes from, and the MTS version.
+// The whole jar is hashed since locators often use Matchers and helpers from other classes in it.
+// Locators are expected to only look at the method they're given, so anything else changing
+// doesn't invalidate an entry. --verify-locator-cache runs every locator anyway and reports any
+// entry that disagrees with it.
+public class LocatorCache
+{
+    private static final int FORMAT_VERSION = 2;
+    private static final File FILE = new File(FileHashCache.CACHE_DIR, "locators.json");
+    // Entries not used in this long are dropped on save
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+    private static LocatorCache instance = null;
+    private static boolean dirty = false;
+    private static int hits = 0;
+    private static int misses = 0;
+    // Target classes are hashed once per launch
+    private static final Map<CtClass, byte[]> classHashes = new IdentityHashMap<>();
+
+    private int format;
+    private Map<String, Entry> entries = new HashMap<>();
+
+    private static class Entry
+    {
+        int[] lines;
+        long used;
+    }
+
+    public static String key(CtBehavior ctMethodToPatch, Class<?> locator) throws IOException
+    {
+        MessageDigest digest = FileHashCache.newDigest();
+        update(digest, "format:" + FORMAT_VERSION);
+        update(digest, "mts:" + Loader.MTS_VERSION);
+        update(digest, "method:" + ctMethodToPatch.getLongName());
+        digest.update(classHash(ctMethodToPatch.getDeclaringClass()));
+        // The class hash is from its first use, the method may have been created or changed since
+        CodeAttribute ca = ctMethodToPatch.getMethodInfo2().getCodeAttribute();
+        if (ca != null) {
+            digest.update(ca.getCode());
+            AttributeInfo lines = ca.getAttribute(LineNumberAttribute.tag);
+            if (lines != null) {
+                digest.update(lines.get());
+            }
+        }
+        update(digest, "locator:" + locator.getName());
+        digest.update(locatorSource(locator));
+        return FileHashCache.toHex(digest.digest());
+    }
+
+    public static synchronized int[] get(String key)
+    {
+        Entry entry = load().entries.get(key);
+        if (entry == null) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        // Only worth rewriting the file for once a day
+        long now = System.currentTimeMillis();
+        if (now - entry.used > TimeUnit.DAYS.toMillis(1)) {
+            entry.used = now;
+            dirty = true;
+        }
+        return entry.lines.clone();
+    }
+
+    public static synchronized void put(String key, int[] lines)
+    {
+        Entry entry = new Entry();
+        entry.lines = lines.clone();
+        entry.used = System.currentTimeMillis();
+        load().entries.put(key, entry);
+        dirty = true;
+    }
+
+    public static synchronized void save()
+    {
+        classHashes.clear();
+        if (!dirty) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = instance.entries.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().used > MAX_AGE) {
+                it.remove();
+            }
+        }
+        try {
+            new File(FileHashCache.CACHE_DIR).mkdirs();
+            Files.write(FILE.toPath(), new Gson().toJson(instance).getBytes(StandardCharsets.UTF_8));
+            dirty = false;
+        } catch (IOException e) {
+            System.out.println("Failed to save locator cache: " + e.getMessage());
+        }
+    }
+
+    public static synchronized void printStats()
+    {
+        System.out.println("Locator cache: " + hits + " hits, " + misses + " misses");
+    }
+
+    private static LocatorCache load()
+    {
+        if (instance != null) {
+            return instance;
+        }
+        if (FILE.isFile()) {
+            try {
+                String data = new String(Files.readAllBytes(FILE.toPath()), StandardCharsets.UTF_8);
+                LocatorCache cache = new Gson().fromJson(data, LocatorCache.class);
+                if (cache != null && cache.format == FORMAT_VERSION && cache.entries != null) {
+                    instance = cache;
+                    return instance;
+                }
+            } catch (Exception e) {
+                System.out.println("Failed to read locator cache: " + e.getMessage());
+            }
+        }
+        instance = new LocatorCache();
+        instance.format = FORMAT_VERSION;
+        return instance;
+    }
+
+    private static synchronized byte[] classHash(CtClass cc) throws IOException
+    {
+        byte[] hash = classHashes.get(cc);
+        if (hash == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            cc.getClassFile2().write(new DataOutputStream(bytes));
+            hash = FileHashCache.newDigest().digest(bytes.toByteArray());
+            classHashes.put(cc, hash);
+        }
+        return hash;
+    }
+
+    // The content hash of the locator's jar, or the class file itself if it isn't in one
+    private static byte[] locatorSource(Class<?> cls) throws IOException
+    {
+        String resource = cls.getName().replace('.', '/') + ".class";
+        ClassLoader loader = cls.getClassLoader();
+        URL url = loader != null ? loader.getResource(resource) : ClassLoader.getSystemResource(resource);
+        if (url == null) {
+            throw new IOException("Can't find class file for " + cls.getName());
+        }
+        String s = url.toExternalForm();
+        int i = s.indexOf("!/");
+        if (s.startsWith("jar:file:") && i >= 0) {
+            File jar = PatchedClassCache.urlToFile(new URL(s.substring(4, i)));
+            return ("jar:" + FileHashCache.hash(jar)).getBytes(StandardCharsets.UTF_8);
+        }
+        try (InputStream in = url.openStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void update(MessageDigest digest, String s)
+    {
+        digest.update(s.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+    }
+}
@@ -0,0 +1,219 @@
+package com.evacipated.cardcrawl.modthespire.cache;
+
+import com.evacipated.cardcrawl.modthespire.Loader;
+import com.evacipated.cardcrawl.modthespire.ModInfo;
+import javassist.ClassPool;
+import javassist.CtClass;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+
+// Which jars each patched class's output depends on, saved next to the patched class cache
+// A class depends on the jar it comes from and on the jar of every patch class that patches it, in
+// patch order. When a later launch has a different mod set but the same game and MTS, a class whose
+// list is unchanged comes out the same, so its bytes from the previous run can be reused instead of
+// patching it again.
+// Raw patches get the whole ClassPool and may change any class, so a change to the jars that have
+// Raw patches rebuilds everything, and Raw patch targets are always patched again.
+// Patch source compiled into a class can call into any other mod jar, and javassist picks the
+// overload and descriptor at patch time, so the mod jar of every class a patched class refers to is
+// recorded as well once it's patched. A class is patched again if any of those changed.
+public class PatchDependencies
+{
+    private String base;
+    private List<String> rawSources = new ArrayList<>();
+    private Map<String, List<String>> classes = new HashMap<>();
+    // Class -> each class it refers to that comes from a mod jar -> that jar's hash
+    private Map<String, Map<String, String>> references = new HashMap<>();
+
+    // Changed before patches are applied (SpireEnums, SpireOverrides), always patched again
+    private transient Set<String> eager = new HashSet<>();
+    private transient Set<String> rawTargets = new HashSet<>();
+    // Classes that have to be patched together, ie a SpireField target and its patch class
+    private transient Map<String, Set<String>> links = new HashMap<>();
+    private transient Map<String, String> jarSources = new HashMap<>();
+    private transient Set<File> modJars;
+
+    String getBase()
+    {
+        return base;
+    }
+
+    void setBase(String base)
+    {
+        this.base = base;
+    }
+
+    // patchClassName patches className
+    public synchronized void add(ClassPool pool, String className, String patchClassName)
+    {
+        List<String> sources = classes.get(className);
+        if (sources == null) {
+            sources = new ArrayList<>();
+            sources.add(source(pool, className));
+            classes.put(className, sources);
+        }
+        String source = source(pool, patchClassName);
+        if (!sources.subList(1, sources.size()).contains(source)) {
+            sources.add(source);
+        }
+    }
+
+    public synchronized void addRaw(ClassPool pool, String className, String patchClassName)
+    {
+        add(pool, className, patchClassName);
+        String source = source(pool, patchClassName);
+        if (!rawSources.contains(source)) {
+            rawSources.add(source);
+        }
+        rawTargets.add(className);
+    }
+
+    public synchronized void addEager(String className)
+    {
+        eager.add(className);
+    }
+
+    public synchronized void link(String a, String b)
+    {
+        links.computeIfAbsent(a, k -> new HashSet<>()).add(b);
+        links.computeIfAbsent(b, k -> new HashSet<>()).add(a);
+    }
+
+    // Call once cls is fully patched
+    public synchronized void addReferences(CtClass cls)
+    {
+        Map<String, String> refs = new TreeMap<>();
+        Collection<?> names = cls.getRefClasses();
+        if (names != null) {
+            for (Object o : names) {
+                String name = (String) o;
+                while (name.endsWith("[]")) {
+                    name = name.substring(0, name.length() - 2);
+                }
+                if (name.equals(cls.getName())) {
+                    continue;
+                }
+                String source = modSource(cls.getClassPool(), name);
+                if (source != null) {
+                    refs.put(name, source);
+                }
+            }
+        }
+        references.put(cls.getName(), refs);
+    }
+
+    // For a class whose bytes are taken from the previous run
+    public synchronized void keepReferences(PatchDependencies previous, String className)
+    {
+        Map<String, String> refs = previous.references.get(className);
+        if (refs != null) {
+            references.put(className, refs);
+        }
+    }
+
+    // Classes that can be taken from a previous run against the same game and MTS, out of the ones
+    // it has bytes for
+    public synchronized Set<String> reusable(ClassPool pool, PatchDependencies previous, Set<String> previousClasses)
+    {
+        if (previous == null || !rawSources.equals(previous.rawSources)) {
+            return Collections.emptySet();
+        }
+
+        Set<String> affected = new HashSet<>(eager);
+        affected.addAll(rawTargets);
+        for (Map.Entry<String, List<String>> entry : classes.entrySet()) {
+            if (!entry.getValue().equals(previous.classes.get(entry.getKey())) || !previousClasses.contains(entry.getKey())) {
+                affected.add(entry.getKey());
+                continue;
+            }
+            Map<String, String> refs = previous.references.get(entry.getKey());
+            if (refs == null) {
+                affected.add(entry.getKey());
+                continue;
+            }
+            for (Map.Entry<String, String> ref : refs.entrySet()) {
+                if (!ref.getValue().equals(modSource(pool, ref.getKey()))) {
+                    affected.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        Deque<String> queue = new ArrayDeque<>(affected);
+        while (!queue.isEmpty()) {
+            for (String linked : links.getOrDefault(queue.pop(), Collections.emptySet())) {
+                if (affected.add(linked)) {
+                    queue.add(linked);
+                }
+            }
+        }
+
+        Set<String> ret = new HashSet<>(classes.keySet());
+        ret.removeAll(affected);
+        return ret;
+    }
+
+    // The content hash of the mod jar a class comes from, null if it doesn't come from a mod jar
+    private String modSource(ClassPool pool, String className)
+    {
+        URL url = pool.find(className);
+        if (url == null) {
+            return null;
+        }
+        String s = url.toExternalForm();
+        int i = s.indexOf("!/");
+        if (!s.startsWith("jar:file:") || i < 0) {
+            return null;
+        }
+        try {
+            if (!modJars().contains(PatchedClassCache.urlToFile(new URL(s.substring(4, i))).getCanonicalFile())) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return source(pool, className);
+    }
+
+    private Set<File> modJars() throws IOException
+    {
+        if (modJars == null) {
+            modJars = new HashSet<>();
+            if (Loader.MODINFOS != null) {
+                for (ModInfo info : Loader.MODINFOS) {
+                    modJars.add(PatchedClassCache.urlToFile(info.jarURL).getCanonicalFile());
+                }
+            }
+        }
+        return modJars;
+    }
+
+    // The content hash of the jar a class comes from, or where it comes from if it isn't a jar
+    // The game and MTS jars are already part of the base fingerprint
+    private String source(ClassPool pool, String className)
+    {
+        URL url = pool.find(className);
+        if (url == null) {
+            return "?";
+        }
+        String s = url.toExternalForm();
+        int i = s.indexOf("!/");
+        if (!s.startsWith("jar:file:") || i < 0) {
+            return s;
+        }
+        String jar = s.substring(4, i);
+        String hash = jarSources.get(jar);
+        if (hash == null) {
+            try {
+                hash = FileHashCache.hash(PatchedClassCache.urlToFile(new URL(jar)));
+            } catch (IOException e) {
+                // Never equal to a saved source, so the class is always patched again
+                hash = jar + "@" + System.nanoTime();
+            }
+            jarSources.put(jar, hash);
+        }
+        return hash;
+    }
+}
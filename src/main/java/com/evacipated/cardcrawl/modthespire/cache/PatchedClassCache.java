@@ -0,0 +1,237 @@
+package com.evacipated.cardcrawl.modthespire.cache;
+
+import com.evacipated.cardcrawl.modthespire.Loader;
+import com.evacipated.cardcrawl.modthespire.ModInfo;
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// On-disk cache of the final patched class bytes
+// Keyed by a fingerprint of the game jar, MTS, and every mod jar in load order
+// Any change to those produces a new fingerprint, so stale entries are never read,
+// they just age out once the cache grows past its size cap
+// Each entry also keeps its PatchDependencies, so a run with a changed mod set can reuse the
+// classes that no changed mod touches, see loadPrevious()
+public class PatchedClassCache
+{
+    private static final int FORMAT_VERSION = 1;
+    private static final String DIR = FileHashCache.CACHE_DIR + File.separator + "patched";
+
+    private final String baseFingerprint;
+    private final String fingerprint;
+    private final File file;
+
+    public PatchedClassCache(ModInfo[] modInfos) throws IOException
+    {
+        baseFingerprint = makeBaseFingerprint();
+        fingerprint = makeFingerprint(modInfos);
+        file = new File(DIR, fingerprint + ".bin");
+    }
+
+    // A previous run's output, see PatchDependencies
+    public static class PreviousRun
+    {
+        public final PatchDependencies dependencies;
+        public final Map<String, byte[]> classes;
+
+        private PreviousRun(PatchDependencies dependencies, Map<String, byte[]> classes)
+        {
+            this.dependencies = dependencies;
+            this.classes = classes;
+        }
+    }
+
+    public String getFingerprint()
+    {
+        return fingerprint;
+    }
+
+    // Returns the cached classes in the order they must be defined, or null on a miss
+    public Map<String, byte[]> load()
+    {
+        return load(file, fingerprint);
+    }
+
+    // The most recently used run against the same game and MTS, or null if there isn't one
+    public PreviousRun loadPrevious()
+    {
+        File[] files = new File(DIR).listFiles((d, name) -> name.endsWith(".deps.json"));
+        if (files == null) {
+            return null;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        for (File f : files) {
+            PatchDependencies dependencies;
+            try {
+                String data = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+                dependencies = new Gson().fromJson(data, PatchDependencies.class);
+            } catch (Exception e) {
+                System.out.println("Failed to read patch dependencies: " + e.getMessage());
+                continue;
+            }
+            if (dependencies == null || !baseFingerprint.equals(dependencies.getBase())) {
+                continue;
+            }
+            String previous = f.getName().substring(0, f.getName().length() - ".deps.json".length());
+            Map<String, byte[]> classes = load(new File(DIR, previous + ".bin"), previous);
+            if (classes != null) {
+                return new PreviousRun(dependencies, classes);
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, byte[]> load(File file, String fingerprint)
+    {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || !fingerprint.equals(in.readUTF())) {
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for (int i = 0; i < count; ++i) {
+                String name = in.readUTF();
+                byte[] b = new byte[in.readInt()];
+                in.readFully(b);
+                classes.put(name, b);
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return classes;
+        } catch (IOException e) {
+            System.out.println("Patched class cache is corrupt, ignoring it: " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    public void save(Map<String, byte[]> classes, PatchDependencies dependencies)
+    {
+        File dir = new File(DIR);
+        dir.mkdirs();
+        File tmp = new File(DIR, fingerprint + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(fingerprint);
+                out.writeInt(classes.size());
+                for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (dependencies != null) {
+                dependencies.setBase(baseFingerprint);
+                Files.write(depsFile(file).toPath(), new Gson().toJson(dependencies).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to save patched class cache: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+
+        evict(dir, Loader.PATCH_CACHE_SIZE * 1024L * 1024L);
+    }
+
+    // Deletes the least recently used entries until the cache fits in maxBytes
+    // The entry for the current fingerprint is always kept
+    private void evict(File dir, long maxBytes)
+    {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".bin"));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+
+        long total = file.length();
+        for (File f : files) {
+            if (f.equals(file)) {
+                continue;
+            }
+            total += f.length();
+            if (total > maxBytes) {
+                if (Loader.DEBUG) {
+                    System.out.println("Evicting patched class cache " + f.getName());
+                }
+                total -= f.length();
+                f.delete();
+                depsFile(f).delete();
+            }
+        }
+    }
+
+    private static File depsFile(File bin)
+    {
+        String name = bin.getName();
+        return new File(bin.getParentFile(), name.substring(0, name.length() - ".bin".length()) + ".deps.json");
+    }
+
+    // Everything but the mods
+    private static String makeBaseFingerprint() throws IOException
+    {
+        MessageDigest digest = FileHashCache.newDigest();
+        updateBase(digest);
+        return FileHashCache.toHex(digest.digest());
+    }
+
+    private static void updateBase(MessageDigest digest) throws IOException
+    {
+        update(digest, "format:" + FORMAT_VERSION);
+        update(digest, "mts:" + Loader.MTS_VERSION);
+        File mtsJar = mtsJarFile();
+        if (mtsJar != null && mtsJar.isFile()) {
+            update(digest, "mts-jar:" + FileHashCache.hash(mtsJar));
+        }
+        update(digest, "sts:" + FileHashCache.hash(new File(Loader.STS_JAR)));
+    }
+
+    private static String makeFingerprint(ModInfo[] modInfos) throws IOException
+    {
+        MessageDigest digest = FileHashCache.newDigest();
+        updateBase(digest);
+        for (ModInfo info : modInfos) {
+            update(digest, "mod:" + info.jarURL + ":" + FileHashCache.hash(urlToFile(info.jarURL)));
+        }
+        FileHashCache.save();
+        return FileHashCache.toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String s)
+    {
+        digest.update(s.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+    }
+
+    static File mtsJarFile()
+    {
+        try {
+            return new File(Loader.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | SecurityException e) {
+            return null;
+        }
+    }
+
+    public static File urlToFile(URL url)
+    {
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return new File(url.getPath());
+        }
+    }
+}
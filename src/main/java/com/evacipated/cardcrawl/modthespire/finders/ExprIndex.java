@@ -0,0 +1,210 @@
+package com.evacipated.cardcrawl.modthespire.finders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.evacipated.cardcrawl.modthespire.patcher.Expectation;
+
+import javassist.CannotCompileException;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.NotFoundException;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.MethodInfo;
+import javassist.expr.Cast;
+import javassist.expr.ConstructorCall;
+import javassist.expr.Expr;
+import javassist.expr.ExprEditor;
+import javassist.expr.FieldAccess;
+import javassist.expr.Handler;
+import javassist.expr.Instanceof;
+import javassist.expr.MethodCall;
+import javassist.expr.NewArray;
+import javassist.expr.NewExpr;
+
+// Every expression in a method, in the order an ExprEditor visits them
+// Built once per method and shared by every locator run against it, instead of each one
+// instrumenting the method again. Rebuilt when the method's code has changed since.
+public class ExprIndex {
+
+    private static final Map<CtBehavior, ExprIndex> indexes = new ConcurrentHashMap<>();
+
+    private final CodeAttribute codeAttribute;
+    private final byte[] code;
+    private final int handlers;
+    private final List<Entry> entries;
+
+    public static ExprIndex get(CtBehavior ctMethodToPatch) throws CannotCompileException {
+        ExprIndex index = indexes.get(ctMethodToPatch);
+        if (index == null || !index.isCurrent(ctMethodToPatch.getMethodInfo2())) {
+            index = new ExprIndex(ctMethodToPatch);
+            indexes.put(ctMethodToPatch, index);
+        }
+        return index;
+    }
+
+    public static void clear() {
+        indexes.clear();
+    }
+
+    private ExprIndex(CtBehavior ctMethodToPatch) throws CannotCompileException {
+        MethodInfo methodInfo = ctMethodToPatch.getMethodInfo2();
+        codeAttribute = methodInfo.getCodeAttribute();
+        code = codeAttribute == null ? null : codeAttribute.getCode().clone();
+        handlers = codeAttribute == null ? 0 : codeAttribute.getExceptionTable().size();
+
+        List<Entry> entries = new ArrayList<>();
+        // Nothing is edited, so this only reads the method
+        new Recorder(entries).doit(ctMethodToPatch.getDeclaringClass(), methodInfo);
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    private boolean isCurrent(MethodInfo methodInfo) {
+        CodeAttribute ca = methodInfo.getCodeAttribute();
+        if (ca != codeAttribute) {
+            return false;
+        }
+        return ca == null || (ca.getExceptionTable().size() == handlers && Arrays.equals(ca.getCode(), code));
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public static class Entry {
+
+        private final Expectation kind;
+        private final String className;
+        private final String memberName;
+        private final String signature;
+        private final String typeName;
+        private final boolean isFinally;
+        private final int lineNumber;
+
+        private Entry(Expectation kind, String className, String memberName, String signature, String typeName, boolean isFinally, int lineNumber) {
+            this.kind = kind;
+            this.className = className;
+            this.memberName = memberName;
+            this.signature = signature;
+            this.typeName = typeName;
+            this.isFinally = isFinally;
+            this.lineNumber = lineNumber;
+        }
+
+        public Expectation getKind() {
+            return kind;
+        }
+
+        // Class owning the called method/constructor or accessed field, or the class being instantiated
+        public String getClassName() {
+            return className;
+        }
+
+        // Method or field name, null for other kinds
+        public String getMemberName() {
+            return memberName;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        // Type of a cast, instanceof, new array, or catch clause
+        // null if it can't be found in the ClassPool, or for a finally clause
+        public String getTypeName() {
+            return typeName;
+        }
+
+        public boolean isFinally() {
+            return isFinally;
+        }
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+    }
+
+    private static class Recorder extends ExprEditor {
+
+        private final List<Entry> entries;
+
+        Recorder(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        private void add(Expectation kind, Expr expr, String className, String memberName, String signature, String typeName, boolean isFinally) {
+            entries.add(new Entry(kind, className, memberName, signature, typeName, isFinally, expr.getLineNumber()));
+        }
+
+        private static String nameOf(CtClass type) {
+            return type == null ? null : type.getName();
+        }
+
+        @Override
+        public void edit(Cast expr) {
+            String typeName = null;
+            try {
+                typeName = nameOf(expr.getType());
+            } catch (NotFoundException ignored) {
+            }
+            add(Expectation.TYPE_CAST, expr, null, null, null, typeName, false);
+        }
+
+        @Override
+        public void edit(ConstructorCall expr) {
+            add(Expectation.CONSTRUCTOR_CALL, expr, expr.getClassName(), expr.getMethodName(), expr.getSignature(), null, false);
+        }
+
+        @Override
+        public void edit(FieldAccess expr) {
+            add(Expectation.FIELD_ACCESS, expr, expr.getClassName(), expr.getFieldName(), expr.getSignature(), null, false);
+        }
+
+        @Override
+        public void edit(Handler expr) {
+            String typeName = null;
+            try {
+                typeName = nameOf(expr.getType());
+            } catch (NotFoundException ignored) {
+            }
+            add(Expectation.CATCH_CLAUSE, expr, null, null, null, typeName, expr.isFinally());
+        }
+
+        @Override
+        public void edit(Instanceof expr) {
+            String typeName = null;
+            try {
+                typeName = nameOf(expr.getType());
+            } catch (NotFoundException ignored) {
+            }
+            add(Expectation.INSTANCEOF, expr, null, null, null, typeName, false);
+        }
+
+        @Override
+        public void edit(MethodCall expr) {
+            add(Expectation.METHOD_CALL, expr, expr.getClassName(), expr.getMethodName(), expr.getSignature(), null, false);
+        }
+
+        @Override
+        public void edit(NewArray expr) {
+            String typeName = null;
+            try {
+                typeName = nameOf(expr.getComponentType());
+            } catch (NotFoundException ignored) {
+            }
+            add(Expectation.ARRAY_CREATION, expr, null, null, null, typeName, false);
+        }
+
+        @Override
+        public void edit(NewExpr expr) {
+            add(Expectation.NEW_EXPRESSION, expr, expr.getClassName(), null, expr.getSignature(), null, false);
+        }
+
+    }
+
+}
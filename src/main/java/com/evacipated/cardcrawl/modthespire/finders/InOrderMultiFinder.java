@@ -59,6 +59,30 @@ public class InOrderMultiFinder extends MatchFinderExprEditor {
         }
     }
 
+    @Override
+    protected void doMatch(ExprIndex.Entry toMatch) {
+        if (finalMatch()) {
+            if (finalMatch.getExpectation() == toMatch.getKind() && finalMatch.match(toMatch)) {
+                foundFinalMatch(toMatch.getLineNumber());
+            }
+        } else {
+            Matcher current = currentMatch();
+            if (current.getExpectation() == toMatch.getKind() && current.match(toMatch)) {
+                foundMatch();
+            }
+        }
+    }
+
+    @Override
+    public boolean canUseIndex() {
+        for (Matcher m : expectedMatches) {
+            if (!m.canMatchEntries()) {
+                return false;
+            }
+        }
+        return finalMatch.canMatchEntries();
+    }
+
     @Override
     public boolean didFindLocation() {
         return foundLocation;
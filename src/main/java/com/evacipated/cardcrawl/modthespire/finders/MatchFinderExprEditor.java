@@ -21,6 +21,20 @@ public abstract class MatchFinderExprEditor extends ExprEditor {
 
     public abstract int[] getFoundLocations();
 
+    // Whether this can search an ExprIndex instead of instrumenting the method
+    public boolean canUseIndex() {
+        return false;
+    }
+
+    protected void doMatch(ExprIndex.Entry toMatch) {
+    }
+
+    public void find(ExprIndex index) {
+        for (ExprIndex.Entry entry : index.getEntries()) {
+            doMatch(entry);
+        }
+    }
+
     @Override
     public void edit(Cast expr) {
         doMatch(Expectation.TYPE_CAST, expr);
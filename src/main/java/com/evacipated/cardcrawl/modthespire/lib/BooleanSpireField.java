@@ -0,0 +1,44 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+// SpireField for a boolean, stored and accessed without boxing
+public class BooleanSpireField extends SpireFieldBase
+{
+    public interface DefaultValue
+    {
+        boolean get();
+    }
+
+    private DefaultValue defaultValue;
+
+    public BooleanSpireField(DefaultValue defaultValue)
+    {
+        this.defaultValue = defaultValue;
+    }
+
+    // For the subclass FieldAccessorFactory generates for each injected field, which overrides get and set
+    protected BooleanSpireField(BooleanSpireField other)
+    {
+        this(other.defaultValue);
+    }
+
+    public boolean getDefaultValue()
+    {
+        return defaultValue.get();
+    }
+
+    @Override
+    Object boxedDefaultValue()
+    {
+        return getDefaultValue();
+    }
+
+    public boolean get(Object __instance)
+    {
+        return (Boolean) getField(__instance, false);
+    }
+
+    public void set(Object __instance, boolean value)
+    {
+        setField(__instance, value);
+    }
+}
@@ -0,0 +1,44 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+// SpireField for a float, stored and accessed without boxing
+public class FloatSpireField extends SpireFieldBase
+{
+    public interface DefaultValue
+    {
+        float get();
+    }
+
+    private DefaultValue defaultValue;
+
+    public FloatSpireField(DefaultValue defaultValue)
+    {
+        this.defaultValue = defaultValue;
+    }
+
+    // For the subclass FieldAccessorFactory generates for each injected field, which overrides get and set
+    protected FloatSpireField(FloatSpireField other)
+    {
+        this(other.defaultValue);
+    }
+
+    public float getDefaultValue()
+    {
+        return defaultValue.get();
+    }
+
+    @Override
+    Object boxedDefaultValue()
+    {
+        return getDefaultValue();
+    }
+
+    public float get(Object __instance)
+    {
+        return (Float) getField(__instance, 0f);
+    }
+
+    public void set(Object __instance, float value)
+    {
+        setField(__instance, value);
+    }
+}
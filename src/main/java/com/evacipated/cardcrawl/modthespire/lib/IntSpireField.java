@@ -0,0 +1,44 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+// SpireField for a int, stored and accessed without boxing
+public class IntSpireField extends SpireFieldBase
+{
+    public interface DefaultValue
+    {
+        int get();
+    }
+
+    private DefaultValue defaultValue;
+
+    public IntSpireField(DefaultValue defaultValue)
+    {
+        this.defaultValue = defaultValue;
+    }
+
+    // For the subclass FieldAccessorFactory generates for each injected field, which overrides get and set
+    protected IntSpireField(IntSpireField other)
+    {
+        this(other.defaultValue);
+    }
+
+    public int getDefaultValue()
+    {
+        return defaultValue.get();
+    }
+
+    @Override
+    Object boxedDefaultValue()
+    {
+        return getDefaultValue();
+    }
+
+    public int get(Object __instance)
+    {
+        return (Integer) getField(__instance, 0);
+    }
+
+    public void set(Object __instance, int value)
+    {
+        setField(__instance, value);
+    }
+}
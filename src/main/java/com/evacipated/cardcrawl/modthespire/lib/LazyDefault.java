@@ -0,0 +1,14 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+import java.lang.annotation.*;
+
+// On a SpireField (or Int/Float/Long/BooleanSpireField) in a patch class, the injected field isn't given its
+// default value when the patched class is constructed. The default is made the first time get is called
+// for that instance, unless set was called first, so constructors don't call the DefaultValue.
+// Reading the injected field directly, without going through the SpireField, sees the type's zero value
+// until then. Does nothing on static SpireFields, their default is only made once anyway.
+@Target({ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface LazyDefault
+{
+}
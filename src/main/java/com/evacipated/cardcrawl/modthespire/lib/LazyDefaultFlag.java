@@ -0,0 +1,36 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+import java.lang.reflect.Field;
+
+// The boolean field ClassPatchInfo injects next to a @LazyDefault SpireField, true once the SpireField
+// has a value for that instance
+// Only used when the SpireField couldn't get a generated subclass, which reads the flag itself
+class LazyDefaultFlag
+{
+    private final Field field;
+
+    LazyDefaultFlag(Class clz, String fieldName) throws NoSuchFieldException
+    {
+        field = clz.getDeclaredField(fieldName);
+        field.setAccessible(true);
+    }
+
+    boolean isSet(Object __instance)
+    {
+        try {
+            return field.getBoolean(__instance);
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    void markSet(Object __instance)
+    {
+        try {
+            field.setBoolean(__instance, true);
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.evacipated.cardcrawl.modthespire.lib;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.evacipated.cardcrawl.modthespire.finders.ExprIndex;
 import com.evacipated.cardcrawl.modthespire.finders.InOrderFinder;
 import com.evacipated.cardcrawl.modthespire.finders.InOrderMultiFinder;
 import com.evacipated.cardcrawl.modthespire.finders.MatchFinderExprEditor;
@@ -21,7 +22,7 @@ public class LineFinder {
 
     public static final int[] findAllInOrder(CtBehavior ctMethodToPatch, List<Matcher> expectedMatches, Matcher finalMatch) throws CannotCompileException, PatchingException {
         MatchFinderExprEditor editor = new InOrderMultiFinder(expectedMatches, finalMatch);
-        ctMethodToPatch.instrument(editor);
+        find(ctMethodToPatch, editor);
         if (!editor.didFindLocation()) {
             throw new PatchingException(ctMethodToPatch, "Location matching given description could not be found for patch");
         }
@@ -34,11 +35,19 @@ public class LineFinder {
 
     public static final int[] findInOrder(CtBehavior ctMethodToPatch, List<Matcher> expectedMatches, Matcher finalMatch) throws CannotCompileException, PatchingException {
         MatchFinderExprEditor editor = new InOrderFinder(expectedMatches, finalMatch);
-        ctMethodToPatch.instrument(editor);
+        find(ctMethodToPatch, editor);
         if (!editor.didFindLocation()) {
             throw new PatchingException(ctMethodToPatch, "Location matching given description could not be found for patch");
         }
         return editor.getFoundLocations();
     }
 
+    private static void find(CtBehavior ctMethodToPatch, MatchFinderExprEditor editor) throws CannotCompileException {
+        if (editor.canUseIndex()) {
+            editor.find(ExprIndex.get(ctMethodToPatch));
+        } else {
+            ctMethodToPatch.instrument(editor);
+        }
+    }
+
 }
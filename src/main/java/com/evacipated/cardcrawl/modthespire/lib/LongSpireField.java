@@ -0,0 +1,44 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+// SpireField for a long, stored and accessed without boxing
+public class LongSpireField extends SpireFieldBase
+{
+    public interface DefaultValue
+    {
+        long get();
+    }
+
+    private DefaultValue defaultValue;
+
+    public LongSpireField(DefaultValue defaultValue)
+    {
+        this.defaultValue = defaultValue;
+    }
+
+    // For the subclass FieldAccessorFactory generates for each injected field, which overrides get and set
+    protected LongSpireField(LongSpireField other)
+    {
+        this(other.defaultValue);
+    }
+
+    public long getDefaultValue()
+    {
+        return defaultValue.get();
+    }
+
+    @Override
+    Object boxedDefaultValue()
+    {
+        return getDefaultValue();
+    }
+
+    public long get(Object __instance)
+    {
+        return (Long) getField(__instance, 0L);
+    }
+
+    public void set(Object __instance, long value)
+    {
+        setField(__instance, value);
+    }
+}
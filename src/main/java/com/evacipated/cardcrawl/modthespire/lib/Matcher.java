@@ -1,5 +1,6 @@
 package com.evacipated.cardcrawl.modthespire.lib;
 
+import com.evacipated.cardcrawl.modthespire.finders.ExprIndex;
 import com.evacipated.cardcrawl.modthespire.patcher.Expectation;
 
 import javassist.NotFoundException;
@@ -27,6 +28,24 @@ public abstract class Matcher {
 
     public abstract boolean match(Expr toMatch);
 
+    // Same as match(Expr), against an entry of the method's ExprIndex
+    // Only used when canMatchEntries() is true, so matchers that don't override it are always given the Expr
+    public boolean match(ExprIndex.Entry toMatch) {
+        return false;
+    }
+
+    // True when match(Entry) is overridden at least as far down as match(Expr), so a subclass that
+    // changes match(Expr) but inherits match(Entry) is still given the Expr
+    public boolean canMatchEntries() {
+        try {
+            Class<?> entryClass = getClass().getMethod("match", ExprIndex.Entry.class).getDeclaringClass();
+            Class<?> exprClass = getClass().getMethod("match", Expr.class).getDeclaringClass();
+            return entryClass != Matcher.class && exprClass.isAssignableFrom(entryClass);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     public static class TypeCastMatcher extends Matcher {
 
         private String typeName;
@@ -51,6 +70,10 @@ public abstract class Matcher {
             return result;
         }
 
+        public boolean match(ExprIndex.Entry toMatch) {
+            return toMatch.getTypeName() != null && toMatch.getTypeName().equals(typeName);
+        }
+
     }
 
     public static class ConstructorCallMatcher extends Matcher {
@@ -88,6 +111,11 @@ public abstract class Matcher {
                     (!checkMethodName || expr.getMethodName().equals(methodName));
         }
 
+        public boolean match(ExprIndex.Entry toMatch) {
+            return toMatch.getClassName().equals(className) &&
+                    (!checkMethodName || toMatch.getMemberName().equals(methodName));
+        }
+
     }
 
     public static class FieldAccessMatcher extends Matcher {
@@ -112,6 +140,11 @@ public abstract class Matcher {
                     expr.getFieldName().equals(fieldName);
         }
 
+        public boolean match(ExprIndex.Entry toMatch) {
+            return toMatch.getClassName().equals(className) &&
+                    toMatch.getMemberName().equals(fieldName);
+        }
+
     }
 
     public static class CatchClauseMatcher extends Matcher {
@@ -145,6 +178,11 @@ public abstract class Matcher {
             return result;
         }
 
+        public boolean match(ExprIndex.Entry toMatch) {
+            return toMatch.getTypeName() != null && toMatch.getTypeName().equals(exceptionType) &&
+                    toMatch.isFinally() == isFinallyClause;
+        }
+
     }
 
     public static class InstanceOfMatcher extends Matcher {
@@ -175,6 +213,10 @@ public abstract class Matcher {
             return result;
         }
 
+        public boolean match(ExprIndex.Entry toMatch) {
+            return toMatch.getTypeName() != null && toMatch.getTypeName().equals(comparedToType);
+        }
+
     }
 
     public static class MethodCallMatcher extends Matcher {
@@ -199,6 +241,11 @@ public abstract class Matcher {
                     expr.getMethodName().equals(methodName);
         }
 
+        public boolean match(ExprIndex.Entry toMatch) {
+            return toMatch.getClassName().equals(className) &&
+                    toMatch.getMemberName().equals(methodName);
+        }
+
     }
 
     public static class NewArrayMatcher extends Matcher {
@@ -229,6 +276,10 @@ public abstract class Matcher {
             return result;
         }
 
+        public boolean match(ExprIndex.Entry toMatch) {
+            return toMatch.getTypeName() != null && toMatch.getTypeName().equals(className);
+        }
+
     }
 
     public static class NewExprMatcher extends Matcher {
@@ -251,6 +302,10 @@ public abstract class Matcher {
             return expr.getClassName().equals(className);
         }
 
+        public boolean match(ExprIndex.Entry toMatch) {
+            return toMatch.getClassName().equals(className);
+        }
+
     }
 
 }
@@ -1,8 +1,6 @@
 package com.evacipated.cardcrawl.modthespire.lib;
 
-import java.lang.reflect.Field;
-
-public class SpireField<T>
+public class SpireField<T> extends SpireFieldBase
 {
     public interface DefaultValue<T>
     {
@@ -11,17 +9,15 @@ public class SpireField<T>
 
     private DefaultValue<T> defaultValue;
 
-    private Field field;
-
     public SpireField(DefaultValue<T> defaultValue)
     {
         this.defaultValue = defaultValue;
     }
 
-    public void initialize(Class clz, String fieldName) throws NoSuchFieldException
+    // For the subclass FieldAccessorFactory generates for each injected field, which overrides get and set
+    protected SpireField(SpireField<T> other)
     {
-        field = clz.getDeclaredField(fieldName);
-        field.setAccessible(true);
+        this(other.defaultValue);
     }
 
     public T getDefaultValue()
@@ -29,22 +25,19 @@ public class SpireField<T>
         return defaultValue.get();
     }
 
+    @Override
+    Object boxedDefaultValue()
+    {
+        return getDefaultValue();
+    }
+
     public T get(Object __instance)
     {
-        try {
-            return (T) field.get(__instance);
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        }
-        return null;
+        return (T) getField(__instance, null);
     }
 
     public void set(Object __instance, T value)
     {
-        try {
-            field.set(__instance, value);
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        }
+        setField(__instance, value);
     }
 }
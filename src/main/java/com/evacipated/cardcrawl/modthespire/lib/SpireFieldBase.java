@@ -0,0 +1,59 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+import java.lang.reflect.Field;
+
+// What every SpireField type shares: finding the injected field and its @LazyDefault flag, reading and
+// writing them through reflection, and making a @LazyDefault field's default on first read
+// Only the typed get/set are left to each type. Those are only called when FieldAccessorFactory couldn't
+// generate a subclass for the field, which overrides them.
+abstract class SpireFieldBase
+{
+    private Field field;
+    // Only for @LazyDefault
+    private LazyDefaultFlag setFlag;
+
+    public void initialize(Class clz, String fieldName) throws NoSuchFieldException
+    {
+        field = clz.getDeclaredField(fieldName);
+        field.setAccessible(true);
+    }
+
+    // For @LazyDefault, setFieldName is the field recording whether this one has been given a value yet
+    public void initialize(Class clz, String fieldName, String setFieldName) throws NoSuchFieldException
+    {
+        initialize(clz, fieldName);
+        setFlag = new LazyDefaultFlag(clz, setFieldName);
+    }
+
+    // getDefaultValue, boxed
+    abstract Object boxedDefaultValue();
+
+    // Boxed, zero is returned if the field can't be read
+    // A @LazyDefault field that hasn't been given a value yet is set to its default first
+    final Object getField(Object __instance, Object zero)
+    {
+        if (setFlag != null && !setFlag.isSet(__instance)) {
+            Object value = boxedDefaultValue();
+            setField(__instance, value);
+            return value;
+        }
+        try {
+            return field.get(__instance);
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return zero;
+    }
+
+    final void setField(Object __instance, Object value)
+    {
+        if (setFlag != null) {
+            setFlag.markSet(__instance);
+        }
+        try {
+            field.set(__instance, value);
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -5,14 +5,24 @@ import java.util.NoSuchElementException;
 public final class SpireReturn<T>
 {
     private static final SpireReturn<?> EMPTY = new SpireReturn<>();
+    private static final SpireReturn<Boolean> TRUE = new SpireReturn<>(boolean.class, 1);
+    private static final SpireReturn<Boolean> FALSE = new SpireReturn<>(boolean.class, 0);
+    // Prices, costs, and amounts are mostly small, so like Integer.valueOf returning one doesn't allocate
+    private static final int INT_CACHE_LOW = -128;
+    private static final SpireReturn<?>[] INT_CACHE = new SpireReturn<?>[1024 - INT_CACHE_LOW];
 
     private final boolean hasValue;
     private final T value;
+    // Set when returning a primitive, which is kept in primitiveBits instead of being boxed into value
+    private final Class<?> primitiveType;
+    private final long primitiveBits;
 
     private SpireReturn()
     {
         hasValue = false;
         value = null;
+        primitiveType = null;
+        primitiveBits = 0;
     }
 
     public static<T> SpireReturn<T> Continue()
@@ -26,6 +36,16 @@ public final class SpireReturn<T>
     {
         hasValue = true;
         this.value = value;
+        primitiveType = null;
+        primitiveBits = 0;
+    }
+
+    private SpireReturn(Class<?> primitiveType, long primitiveBits)
+    {
+        hasValue = true;
+        value = null;
+        this.primitiveType = primitiveType;
+        this.primitiveBits = primitiveBits;
     }
 
     public static<T> SpireReturn<T> Return(T value)
@@ -33,16 +53,158 @@ public final class SpireReturn<T>
         return new SpireReturn<>(value);
     }
 
+    // Returning a primitive with these doesn't box it, and the patched method reads it back with the
+    // matching xValue() method. Return(5) still boxes, like it always has.
+    // Booleans and small ints are cached. Any other value gets a new SpireReturn, one allocation instead of
+    // Return's two, and none once the JIT inlines a patch that only ever returns through these.
+
+    public static SpireReturn<Boolean> ReturnBoolean(boolean value)
+    {
+        return value ? TRUE : FALSE;
+    }
+
+    public static SpireReturn<Byte> ReturnByte(byte value)
+    {
+        return new SpireReturn<>(byte.class, value);
+    }
+
+    public static SpireReturn<Character> ReturnChar(char value)
+    {
+        return new SpireReturn<>(char.class, value);
+    }
+
+    public static SpireReturn<Short> ReturnShort(short value)
+    {
+        return new SpireReturn<>(short.class, value);
+    }
+
+    public static SpireReturn<Integer> ReturnInt(int value)
+    {
+        int i = value - INT_CACHE_LOW;
+        if (i < 0 || i >= INT_CACHE.length) {
+            return new SpireReturn<>(int.class, value);
+        }
+        @SuppressWarnings("unchecked")
+        SpireReturn<Integer> ret = (SpireReturn<Integer>) INT_CACHE[i];
+        if (ret == null) {
+            // Racing threads at worst make equal copies, which are immutable so any of them is safe to share
+            ret = new SpireReturn<>(int.class, value);
+            INT_CACHE[i] = ret;
+        }
+        return ret;
+    }
+
+    public static SpireReturn<Long> ReturnLong(long value)
+    {
+        return new SpireReturn<>(long.class, value);
+    }
+
+    public static SpireReturn<Float> ReturnFloat(float value)
+    {
+        return new SpireReturn<>(float.class, Float.floatToRawIntBits(value));
+    }
+
+    public static SpireReturn<Double> ReturnDouble(double value)
+    {
+        return new SpireReturn<>(double.class, Double.doubleToRawLongBits(value));
+    }
+
+    @SuppressWarnings("unchecked")
     public T get()
     {
         if (!isPresent()) {
             throw new NoSuchElementException("No value present");
         }
-        return value;
+        if (primitiveType == null) {
+            return value;
+        } else if (primitiveType == boolean.class) {
+            return (T) Boolean.valueOf(primitiveBits != 0);
+        } else if (primitiveType == byte.class) {
+            return (T) Byte.valueOf((byte) primitiveBits);
+        } else if (primitiveType == char.class) {
+            return (T) Character.valueOf((char) primitiveBits);
+        } else if (primitiveType == short.class) {
+            return (T) Short.valueOf((short) primitiveBits);
+        } else if (primitiveType == int.class) {
+            return (T) Integer.valueOf((int) primitiveBits);
+        } else if (primitiveType == long.class) {
+            return (T) Long.valueOf(primitiveBits);
+        } else if (primitiveType == float.class) {
+            return (T) Float.valueOf(Float.intBitsToFloat((int) primitiveBits));
+        } else {
+            return (T) Double.valueOf(Double.longBitsToDouble(primitiveBits));
+        }
     }
 
     public boolean isPresent()
     {
         return hasValue;
     }
+
+    // Each of these unboxes get() if the value wasn't returned as that primitive,
+    // which throws like casting get() would
+
+    public boolean booleanValue()
+    {
+        if (primitiveType == boolean.class) {
+            return primitiveBits != 0;
+        }
+        return (Boolean) get();
+    }
+
+    public byte byteValue()
+    {
+        if (primitiveType == byte.class) {
+            return (byte) primitiveBits;
+        }
+        return (Byte) get();
+    }
+
+    public char charValue()
+    {
+        if (primitiveType == char.class) {
+            return (char) primitiveBits;
+        }
+        return (Character) get();
+    }
+
+    public short shortValue()
+    {
+        if (primitiveType == short.class) {
+            return (short) primitiveBits;
+        }
+        return (Short) get();
+    }
+
+    public int intValue()
+    {
+        if (primitiveType == int.class) {
+            return (int) primitiveBits;
+        }
+        return (Integer) get();
+    }
+
+    public long longValue()
+    {
+        if (primitiveType == long.class) {
+            return primitiveBits;
+        }
+        return (Long) get();
+    }
+
+    public float floatValue()
+    {
+        if (primitiveType == float.class) {
+            return Float.intBitsToFloat((int) primitiveBits);
+        }
+        return (Float) get();
+    }
+
+    public double doubleValue()
+    {
+        if (primitiveType == double.class) {
+            return Double.longBitsToDouble(primitiveBits);
+        }
+        return (Double) get();
+    }
 }
@@ -0,0 +1,24 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+public class StaticBooleanSpireField extends BooleanSpireField
+{
+    public StaticBooleanSpireField(DefaultValue defaultValue)
+    {
+        super(defaultValue);
+    }
+
+    protected StaticBooleanSpireField(StaticBooleanSpireField other)
+    {
+        super(other);
+    }
+
+    public boolean get()
+    {
+        return super.get(null);
+    }
+
+    public void set(boolean value)
+    {
+        super.set(null, value);
+    }
+}
@@ -0,0 +1,24 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+public class StaticFloatSpireField extends FloatSpireField
+{
+    public StaticFloatSpireField(DefaultValue defaultValue)
+    {
+        super(defaultValue);
+    }
+
+    protected StaticFloatSpireField(StaticFloatSpireField other)
+    {
+        super(other);
+    }
+
+    public float get()
+    {
+        return super.get(null);
+    }
+
+    public void set(float value)
+    {
+        super.set(null, value);
+    }
+}
@@ -0,0 +1,24 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+public class StaticIntSpireField extends IntSpireField
+{
+    public StaticIntSpireField(DefaultValue defaultValue)
+    {
+        super(defaultValue);
+    }
+
+    protected StaticIntSpireField(StaticIntSpireField other)
+    {
+        super(other);
+    }
+
+    public int get()
+    {
+        return super.get(null);
+    }
+
+    public void set(int value)
+    {
+        super.set(null, value);
+    }
+}
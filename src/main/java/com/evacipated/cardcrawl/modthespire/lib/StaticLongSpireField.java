@@ -0,0 +1,24 @@
+package com.evacipated.cardcrawl.modthespire.lib;
+
+public class StaticLongSpireField extends LongSpireField
+{
+    public StaticLongSpireField(DefaultValue defaultValue)
+    {
+        super(defaultValue);
+    }
+
+    protected StaticLongSpireField(StaticLongSpireField other)
+    {
+        super(other);
+    }
+
+    public long get()
+    {
+        return super.get(null);
+    }
+
+    public void set(long value)
+    {
+        super.set(null, value);
+    }
+}
@@ -7,6 +7,11 @@ public class StaticSpireField<T> extends SpireField<T>
         super(defaultValue);
     }
 
+    protected StaticSpireField(StaticSpireField<T> other)
+    {
+        super(other);
+    }
+
     public T get()
     {
         return super.get(null);
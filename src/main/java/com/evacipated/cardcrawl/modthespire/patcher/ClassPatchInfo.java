@@ -1,8 +1,7 @@
 package com.evacipated.cardcrawl.modthespire.patcher;
 
 import com.evacipated.cardcrawl.modthespire.Loader;
-import com.evacipated.cardcrawl.modthespire.lib.SpireField;
-import com.evacipated.cardcrawl.modthespire.lib.StaticSpireField;
+import com.evacipated.cardcrawl.modthespire.lib.*;
 import javassist.*;
 import javassist.bytecode.AnnotationsAttribute;
 import javassist.bytecode.ConstPool;
@@ -11,12 +10,34 @@ import javassist.bytecode.annotation.Annotation;
 import javassist.bytecode.annotation.AnnotationImpl;
 
 import java.lang.reflect.Proxy;
-import java.util.Random;
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ClassPatchInfo extends PatchInfo
 {
+    // Field type injected for each primitive SpireField
+    private static final Map<String, String> PRIMITIVE_FIELDS = new HashMap<>();
+    private static final Set<String> STATIC_FIELDS = new HashSet<>();
+
+    static
+    {
+        PRIMITIVE_FIELDS.put(IntSpireField.class.getName(), "int");
+        PRIMITIVE_FIELDS.put(StaticIntSpireField.class.getName(), "int");
+        PRIMITIVE_FIELDS.put(FloatSpireField.class.getName(), "float");
+        PRIMITIVE_FIELDS.put(StaticFloatSpireField.class.getName(), "float");
+        PRIMITIVE_FIELDS.put(LongSpireField.class.getName(), "long");
+        PRIMITIVE_FIELDS.put(StaticLongSpireField.class.getName(), "long");
+        PRIMITIVE_FIELDS.put(BooleanSpireField.class.getName(), "boolean");
+        PRIMITIVE_FIELDS.put(StaticBooleanSpireField.class.getName(), "boolean");
+
+        STATIC_FIELDS.add(StaticSpireField.class.getName());
+        STATIC_FIELDS.add(StaticIntSpireField.class.getName());
+        STATIC_FIELDS.add(StaticFloatSpireField.class.getName());
+        STATIC_FIELDS.add(StaticLongSpireField.class.getName());
+        STATIC_FIELDS.add(StaticBooleanSpireField.class.getName());
+    }
+
     private CtClass ctPatchClass;
     private CtClass ctClassToPatch;
 
@@ -40,6 +61,12 @@ public class ClassPatchInfo extends PatchInfo
         return "";
     }
 
+    @Override
+    public CtClass getTargetClass()
+    {
+        return ctClassToPatch;
+    }
+
     @Override
     protected String patchClassName()
     {
@@ -57,21 +84,32 @@ public class ClassPatchInfo extends PatchInfo
     {
         try {
             for (CtField f : ctPatchClass.getDeclaredFields()) {
-                boolean isStatic = f.getType().getName().equals(StaticSpireField.class.getCanonicalName());
-                boolean isSpireField = isStatic || f.getType().getName().equals(SpireField.class.getCanonicalName());
-                if (isSpireField) {
+                String spireFieldType = f.getType().getName();
+                boolean isStatic = STATIC_FIELDS.contains(spireFieldType);
+                boolean isPrimitive = PRIMITIVE_FIELDS.containsKey(spireFieldType);
+                if (isSpireFieldType(spireFieldType)) {
+                    boolean isLazy = !isStatic && f.hasAnnotation(LazyDefault.class.getName());
                     int tries = 100;
                     while (tries > 0) {
                         --tries;
                         // Make the field
                         String fieldName = String.format("%s_%d", f.getName(), new Random().nextInt(1000));
-                        String fieldType = f.getGenericSignature();
-                        Pattern pattern = Pattern.compile("Lcom/evacipated/cardcrawl/modthespire/lib/(?:Static)?SpireField<L(.+);>;");
-                        Matcher matcher = pattern.matcher(fieldType);
-                        matcher.find();
-                        fieldType = matcher.group(1).replace('/', '.');
-                        if (fieldType.contains("<")) {
-                            fieldType = fieldType.substring(0, fieldType.indexOf('<'));
+                        String setFieldName = fieldName + "_set";
+                        if (isLazy && hasField(ctClassToPatch, setFieldName)) {
+                            continue;
+                        }
+                        String fieldType;
+                        if (isPrimitive) {
+                            fieldType = PRIMITIVE_FIELDS.get(spireFieldType);
+                        } else {
+                            fieldType = f.getGenericSignature();
+                            Pattern pattern = Pattern.compile("Lcom/evacipated/cardcrawl/modthespire/lib/(?:Static)?SpireField<L(.+);>;");
+                            Matcher matcher = pattern.matcher(fieldType);
+                            matcher.find();
+                            fieldType = matcher.group(1).replace('/', '.');
+                            if (fieldType.contains("<")) {
+                                fieldType = fieldType.substring(0, fieldType.indexOf('<'));
+                            }
                         }
                         String str = String.format("public%s %s %s;",
                             (isStatic ? " static" : ""),
@@ -103,13 +141,25 @@ public class ClassPatchInfo extends PatchInfo
 
                         String expr = String.format("(%s) %s.%s.getDefaultValue()", fieldType, ctPatchClass.getName(), f.getName());
                         try {
-                            ctClassToPatch.addField(new_f, CtField.Initializer.byExpr(expr));
+                            if (isLazy) {
+                                // Left unset, SpireField.get makes the default
+                                ctClassToPatch.addField(new_f);
+                            } else {
+                                ctClassToPatch.addField(new_f, CtField.Initializer.byExpr(expr));
+                            }
                         } catch (DuplicateMemberException e) {
                             if (tries == 0) {
                                 throw e;
                             }
                             continue;
                         }
+                        if (isLazy) {
+                            String setStr = String.format("public boolean %s;", setFieldName);
+                            if (Loader.DEBUG) {
+                                System.out.println(" - Adding Field: " + setStr);
+                            }
+                            ctClassToPatch.addField(CtField.make(setStr, ctClassToPatch));
+                        }
 
                         // Make and initialize SpireField object
                         CtConstructor staticinit = ctPatchClass.getClassInitializer();
@@ -118,10 +168,15 @@ public class ClassPatchInfo extends PatchInfo
                         }
                         String src = String.format("{\n" +
                                 "if (%s == null) { %s = new %s(null); }\n" +
-                                "%s.initialize(%s, \"%s\");\n" +
+                                "%s.initialize(%s, \"%s\"%s);\n" +
+                                "%s = (%s) %s.specialize(%s, %s, \"%s\", %s);\n" +
                                 "}",
-                            f.getName(), f.getName(), (isStatic ? StaticSpireField.class.getCanonicalName() : SpireField.class.getCanonicalName()),
-                            f.getName(), ctClassToPatch.getName() + ".class", fieldName);
+                            f.getName(), f.getName(), spireFieldType,
+                            f.getName(), ctClassToPatch.getName() + ".class", fieldName,
+                            (isLazy ? ", \"" + setFieldName + "\"" : ""),
+                            f.getName(), spireFieldType, FieldAccessorFactory.class.getName(),
+                            f.getName(), ctClassToPatch.getName() + ".class", fieldName,
+                            (isLazy ? "\"" + setFieldName + "\"" : "null"));
                         if (Loader.DEBUG) {
                             System.out.println(src);
                         }
@@ -138,4 +193,19 @@ public class ClassPatchInfo extends PatchInfo
             throw new PatchingException(e);
         }
     }
+
+    static boolean isSpireFieldType(String name)
+    {
+        return STATIC_FIELDS.contains(name) || PRIMITIVE_FIELDS.containsKey(name) || name.equals(SpireField.class.getName());
+    }
+
+    private static boolean hasField(CtClass ctClass, String name)
+    {
+        try {
+            ctClass.getDeclaredField(name);
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,193 @@
+package com.evacipated.cardcrawl.modthespire.patcher;
+
+import com.evacipated.cardcrawl.modthespire.Loader;
+import com.evacipated.cardcrawl.modthespire.MTSClassLoader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+// Generates a subclass of a SpireField type (SpireField, IntSpireField, StaticIntSpireField, ...) for one
+// injected field, whose get and set read and write it with plain getfield/putfield instead of reflection
+// Every field gets its own class, so a call site that always uses the same SpireField only ever sees one
+// receiver type and HotSpot inlines the field access into it. A single accessor call inside SpireField.get
+// would be shared by every field, and stops being inlined once a few different fields go through it.
+// The subclass is defined in the same loader and package as the field's class, which keeps
+// package-private classes accessible. When that isn't possible the SpireField is returned as it is, and
+// keeps using reflection.
+public class FieldAccessorFactory implements Opcodes
+{
+    // Called from the static initializer ClassPatchInfo adds to the patch class, once spireField is initialized
+    // setFieldName is the @LazyDefault flag field, or null
+    public static Object specialize(Object spireField, Class<?> clz, String fieldName, String setFieldName)
+    {
+        Class<?> spireFieldType = spireField.getClass();
+        Field field;
+        Field setFlag = null;
+        Class<?> valueType;
+        boolean isStaticType;
+        try {
+            field = clz.getDeclaredField(fieldName);
+            if (setFieldName != null) {
+                setFlag = clz.getDeclaredField(setFieldName);
+            }
+            valueType = spireFieldType.getMethod("get", Object.class).getReturnType();
+            isStaticType = hasMethod(spireFieldType, "get");
+            // The copy constructor the subclass calls
+            spireFieldType.getDeclaredConstructor(spireFieldType);
+        } catch (NoSuchFieldException | NoSuchMethodException e) {
+            return spireField;
+        }
+        if (!(clz.getClassLoader() instanceof MTSClassLoader)
+            || !ClassPatchInfo.isSpireFieldType(spireFieldType.getName())
+            || Modifier.isStatic(field.getModifiers()) != isStaticType
+            || field.getType().isPrimitive() != valueType.isPrimitive()
+            || (valueType.isPrimitive() && field.getType() != valueType)
+            || !isAccessible(field.getType(), clz)) {
+            return spireField;
+        }
+
+        String name = clz.getName() + "$SpireField$" + field.getName();
+        try {
+            byte[] b = generate(name.replace('.', '/'), spireFieldType, field, setFlag, valueType);
+            Class<?> cls = ((MTSClassLoader) clz.getClassLoader()).definePatchedClass(name, b);
+            return cls.getConstructor(spireFieldType).newInstance(spireField);
+        } catch (LinkageError | ReflectiveOperationException | RuntimeException e) {
+            if (Loader.DEBUG) {
+                System.out.println("Using reflection for SpireField " + clz.getName() + "." + field.getName() + ": " + e);
+            }
+            return spireField;
+        }
+    }
+
+    private static boolean hasMethod(Class<?> cls, String name, Class<?>... params)
+    {
+        try {
+            cls.getMethod(name, params);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static boolean isAccessible(Class<?> type, Class<?> from)
+    {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        return type.isPrimitive()
+            || Modifier.isPublic(type.getModifiers())
+            || (type.getClassLoader() == from.getClassLoader() && packageName(type).equals(packageName(from)));
+    }
+
+    // Class.getPackage() is null for classes MTS defines itself
+    private static String packageName(Class<?> cls)
+    {
+        int i = cls.getName().lastIndexOf('.');
+        return i < 0 ? "" : cls.getName().substring(0, i);
+    }
+
+    private static byte[] generate(String name, Class<?> spireFieldType, Field field, Field setFlag, Class<?> valueType)
+    {
+        String superName = Type.getInternalName(spireFieldType);
+        String owner = Type.getInternalName(field.getDeclaringClass());
+        String desc = Type.getDescriptor(field.getType());
+        Type value = Type.getType(valueType);
+        boolean isStatic = Modifier.isStatic(field.getModifiers());
+
+        // No merges of different reference types, so frames never need to load a class
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, name, null, superName, null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "(L" + superName + ";)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitMethodInsn(INVOKESPECIAL, superName, "<init>", "(L" + superName + ";)V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // get(Object)
+        mv = cw.visitMethod(ACC_PUBLIC, "get", "(Ljava/lang/Object;)" + value.getDescriptor(), null, null);
+        mv.visitCode();
+        if (setFlag != null) {
+            // Not set yet, make the default and set it
+            Label set = new Label();
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitTypeInsn(CHECKCAST, owner);
+            mv.visitFieldInsn(GETFIELD, owner, setFlag.getName(), "Z");
+            mv.visitJumpInsn(IFNE, set);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKEVIRTUAL, superName, "getDefaultValue", "()" + value.getDescriptor(), false);
+            mv.visitVarInsn(value.getOpcode(ISTORE), 2);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitVarInsn(value.getOpcode(ILOAD), 2);
+            mv.visitMethodInsn(INVOKEVIRTUAL, name, "set", "(Ljava/lang/Object;" + value.getDescriptor() + ")V", false);
+            mv.visitVarInsn(value.getOpcode(ILOAD), 2);
+            mv.visitInsn(value.getOpcode(IRETURN));
+            mv.visitLabel(set);
+        }
+        if (isStatic) {
+            mv.visitFieldInsn(GETSTATIC, owner, field.getName(), desc);
+        } else {
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitTypeInsn(CHECKCAST, owner);
+            mv.visitFieldInsn(GETFIELD, owner, field.getName(), desc);
+        }
+        mv.visitInsn(value.getOpcode(IRETURN));
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // set(Object, value)
+        mv = cw.visitMethod(ACC_PUBLIC, "set", "(Ljava/lang/Object;" + value.getDescriptor() + ")V", null, null);
+        mv.visitCode();
+        if (setFlag != null) {
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitTypeInsn(CHECKCAST, owner);
+            mv.visitInsn(ICONST_1);
+            mv.visitFieldInsn(PUTFIELD, owner, setFlag.getName(), "Z");
+        }
+        if (!isStatic) {
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitTypeInsn(CHECKCAST, owner);
+        }
+        mv.visitVarInsn(value.getOpcode(ILOAD), 2);
+        if (!valueType.isPrimitive()) {
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(field.getType()));
+        }
+        mv.visitFieldInsn(isStatic ? PUTSTATIC : PUTFIELD, owner, field.getName(), desc);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        if (isStatic) {
+            // The static types' get() and set(value) would otherwise share one call to get(null)/set(null, value)
+            mv = cw.visitMethod(ACC_PUBLIC, "get", "()" + value.getDescriptor(), null, null);
+            mv.visitCode();
+            mv.visitFieldInsn(GETSTATIC, owner, field.getName(), desc);
+            mv.visitInsn(value.getOpcode(IRETURN));
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            mv = cw.visitMethod(ACC_PUBLIC, "set", "(" + value.getDescriptor() + ")V", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(value.getOpcode(ILOAD), 1);
+            if (!valueType.isPrimitive()) {
+                mv.visitTypeInsn(CHECKCAST, Type.getInternalName(field.getType()));
+            }
+            mv.visitFieldInsn(PUTSTATIC, owner, field.getName(), desc);
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
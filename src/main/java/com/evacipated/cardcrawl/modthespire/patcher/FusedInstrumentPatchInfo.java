@@ -0,0 +1,72 @@
+package com.evacipated.cardcrawl.modthespire.patcher;
+
+import com.evacipated.cardcrawl.modthespire.Loader;
+import com.evacipated.cardcrawl.modthespire.patcher.javassist.ChainedExprEditor;
+import javassist.CannotCompileException;
+import javassist.expr.ExprEditor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Several Instrument patches on the same method, applied in as few passes over it as possible
+public class FusedInstrumentPatchInfo extends PatchInfo
+{
+    private List<InstrumentPatchInfo> patches;
+
+    public FusedInstrumentPatchInfo(List<InstrumentPatchInfo> patches)
+    {
+        super(patches.get(0).ctMethodToPatch, null);
+        this.patches = patches;
+    }
+
+    @Override
+    protected String patchClassName()
+    {
+        return patches.stream()
+            .map(PatchInfo::patchClassName)
+            .collect(Collectors.joining(", "));
+    }
+
+    @Override
+    protected String debugMsg()
+    {
+        return "Adding " + patches.size() + " Instruments...";
+    }
+
+    @Override
+    public int patchOrdering()
+    {
+        return -1;
+    }
+
+    @Override
+    public void doPatch() throws PatchingException
+    {
+        try {
+            List<ExprEditor> editors = new ArrayList<>();
+            for (InstrumentPatchInfo p : patches) {
+                editors.add(p.createEditor());
+            }
+            List<ExprEditor> passes = ChainedExprEditor.chain(editors);
+
+            long startTime = System.nanoTime();
+            for (ExprEditor editor : passes) {
+                ctMethodToPatch.instrument(editor);
+            }
+            long time = System.nanoTime() - startTime;
+
+            if (Loader.DEBUG) {
+                // Each pass that was saved would have walked the method again on top of its edits
+                startTime = System.nanoTime();
+                new ExprEditor().doit(ctMethodToPatch.getDeclaringClass(), ctMethodToPatch.getMethodInfo2());
+                long walkTime = System.nanoTime() - startTime;
+                System.out.printf("   %d passes instead of %d (%.2fms, ~%.2fms saved)%n",
+                    passes.size(), patches.size(), time / 1e6, (patches.size() - passes.size()) * walkTime / 1e6);
+            }
+        } catch (IllegalAccessException | CannotCompileException | InvocationTargetException e) {
+            throw new PatchingException(e);
+        }
+    }
+}
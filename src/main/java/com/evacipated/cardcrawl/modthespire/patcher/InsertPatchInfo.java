@@ -32,13 +32,18 @@ public class InsertPatchInfo extends PatchInfo
         ABSOLUTE, RELATIVE
     }
 
-    private SpireInsertPatch info;
+    private String[] localvars;
     private List<LineNumberAndPatchType> locs;
 
     public InsertPatchInfo(SpireInsertPatch info, List<LineNumberAndPatchType> locs, CtBehavior ctMethodToPatch, CtMethod patchMethod)
+    {
+        this(info != null ? info.localvars() : null, locs, ctMethodToPatch, patchMethod);
+    }
+
+    public InsertPatchInfo(String[] localvars, List<LineNumberAndPatchType> locs, CtBehavior ctMethodToPatch, CtMethod patchMethod)
     {
         super(ctMethodToPatch, patchMethod);
-        this.info = info;
+        this.localvars = localvars;
         this.locs = locs;
     }
 
@@ -98,14 +103,14 @@ public class InsertPatchInfo extends PatchInfo
         }
 
         String src = "{\n";
-        if (info != null) {
+        if (localvars != null) {
             // Setup array holders for each local variable
-            for (int i = 0; i < info.localvars().length; ++i) {
+            for (int i = 0; i < localvars.length; ++i) {
                 if (i >= localVarTypeNames.length) {
                     throw new PatchingException("Insufficient method parameters to accept localvars");
                 }
                 if (localVarTypeNames[i] != null) {
-                    src += localVarTypeNames[i] + " __" + info.localvars()[i] + " = new " + localVarTypeNames[i] + "{" + info.localvars()[i] + "};\n";
+                    src += localVarTypeNames[i] + " __" + localvars[i] + " = new " + localVarTypeNames[i] + "{" + localvars[i] + "};\n";
                 }
             }
         }
@@ -125,32 +130,32 @@ public class InsertPatchInfo extends PatchInfo
             src += ", ";
         }
         src += "$$";
-        if (info != null) {
-            for (int i = 0; i < info.localvars().length; ++i) {
+        if (localvars != null) {
+            for (int i = 0; i < localvars.length; ++i) {
                 src += ", ";
                 if (localVarTypeNames[i] != null) {
                     src += "__";
                 }
-                src += info.localvars()[i];
+                src += localvars[i];
             }
         }
         src += ");\n";
 
         String src2 = src;
-        if (info != null) {
+        if (localvars != null) {
             // Set local variables to changed values
-            for (int i = 0; i < info.localvars().length; ++i) {
+            for (int i = 0; i < localvars.length; ++i) {
                 if (localVarTypeNames[i] != null) {
-                    src += info.localvars()[i] + " = ";
-                    src2 += info.localvars()[i] + " = ";
+                    src += localvars[i] + " = ";
+                    src2 += localvars[i] + " = ";
 
                     String typename = paramByRefTypename(insertParamAnnotations[i + insertParamsStartIndex]);
                     if (!typename.isEmpty()) {
                         src += "(" + typename + ")";
                         src2 += "(com.megacrit.cardcrawl." + typename + ")";
                     }
-                    src += "__" + info.localvars()[i] + "[0];\n";
-                    src2 += "__" + info.localvars()[i] + "[0];\n";
+                    src += "__" + localvars[i] + "[0];\n";
+                    src2 += "__" + localvars[i] + "[0];\n";
                 }
             }
         }
@@ -159,20 +164,11 @@ public class InsertPatchInfo extends PatchInfo
             String earlyReturn = "if (opt.isPresent()) { return";
             if (ctMethodToPatch instanceof CtMethod && !((CtMethod) ctMethodToPatch).getReturnType().equals(CtPrimitiveType.voidType)) {
                 CtClass toPatchReturnType = ((CtMethod) ctMethodToPatch).getReturnType();
-                String toPatchReturnTypeName = toPatchReturnType.getName();
                 if (toPatchReturnType.isPrimitive()) {
-                    if (toPatchReturnType.equals(CtPrimitiveType.intType)) {
-                        toPatchReturnTypeName = "Integer";
-                    } else if (toPatchReturnType.equals(CtPrimitiveType.charType)) {
-                        toPatchReturnTypeName = "Character";
-                    } else {
-                        toPatchReturnTypeName = toPatchReturnTypeName.substring(0, 1).toUpperCase() + toPatchReturnTypeName.substring(1);
-                    }
-                    earlyReturn += " (";
-                }
-                earlyReturn += " (" + toPatchReturnTypeName + ")opt.get()";
-                if (toPatchReturnType.isPrimitive()) {
-                    earlyReturn += ")." + toPatchReturnType.getName() + "Value()";
+                    // Doesn't box primitives returned with SpireReturn.ReturnInt and the like
+                    earlyReturn += " opt." + ((CtPrimitiveType) toPatchReturnType).getGetMethodName() + "()";
+                } else {
+                    earlyReturn += " (" + toPatchReturnType.getName() + ")opt.get()";
                 }
             }
             earlyReturn += "; }\n";
@@ -35,12 +35,16 @@ public class InstrumentPatchInfo extends PatchInfo
         return -1;
     }
 
+    ExprEditor createEditor() throws IllegalAccessException, InvocationTargetException
+    {
+        return (ExprEditor) method.invoke(null);
+    }
+
     @Override
     public void doPatch() throws PatchingException
     {
         try {
-            ExprEditor exprEditor = (ExprEditor) method.invoke(null);
-            ctMethodToPatch.instrument(exprEditor);
+            ctMethodToPatch.instrument(createEditor());
         } catch (IllegalAccessException | CannotCompileException | InvocationTargetException e) {
             throw new PatchingException(e);
         }
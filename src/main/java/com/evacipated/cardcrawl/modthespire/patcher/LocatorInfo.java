@@ -1,9 +1,13 @@
 package com.evacipated.cardcrawl.modthespire.patcher;
 
+import com.evacipated.cardcrawl.modthespire.Loader;
+import com.evacipated.cardcrawl.modthespire.cache.LocatorCache;
 import com.evacipated.cardcrawl.modthespire.lib.SpireInsertLocator;
 import javassist.CtBehavior;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.Arrays;
 
 public class LocatorInfo {
 
@@ -16,6 +20,32 @@ public class LocatorInfo {
     }
 
     public int[] findLines() throws Exception {
+        String key = null;
+        try {
+            key = LocatorCache.key(ctMethodToPatch, finderClass);
+        } catch (IOException e) {
+            if (Loader.DEBUG) {
+                System.out.println("Not caching locator " + finderClass.getName() + ": " + e.getMessage());
+            }
+        }
+
+        int[] cached = key == null ? null : LocatorCache.get(key);
+        if (cached != null && !Loader.VERIFY_LOCATOR_CACHE) {
+            return cached;
+        }
+
+        int[] lines = locate();
+        if (cached != null && !Arrays.equals(cached, lines)) {
+            System.out.println("Locator cache mismatch: " + finderClass.getName() + " on " + ctMethodToPatch.getLongName());
+            System.out.println("  cached " + Arrays.toString(cached) + ", located " + Arrays.toString(lines));
+        }
+        if (key != null && lines != null) {
+            LocatorCache.put(key, lines);
+        }
+        return lines;
+    }
+
+    private int[] locate() throws Exception {
         Constructor<?> ctor = finderClass.getDeclaredConstructor();
         ctor.setAccessible(true);
         SpireInsertLocator obj = (SpireInsertLocator)ctor.newInstance();
@@ -1,6 +1,7 @@
 package com.evacipated.cardcrawl.modthespire.patcher;
 
 import com.evacipated.cardcrawl.modthespire.lib.SpirePatch;
+import com.evacipated.cardcrawl.modthespire.scanner.JarIndex;
 import javassist.CtClass;
 
 public class MissingParamTypesException extends Exception
@@ -9,4 +10,9 @@ public class MissingParamTypesException extends Exception
     {
         super(String.format("Patch %s\nPatching %s.%s:\nHas overloads and no paramtypes defined", patchClass.getName(), patch.cls(), patch.method()));
     }
+
+    public MissingParamTypesException(CtClass patchClass, JarIndex.Patch patch)
+    {
+        super(String.format("Patch %s\nPatching %s.%s:\nHas overloads and no paramtypes defined", patchClass.getName(), patch.targetName(), patch.method));
+    }
 }
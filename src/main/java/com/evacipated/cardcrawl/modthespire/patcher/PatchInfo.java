@@ -33,6 +33,16 @@ public abstract class PatchInfo
 
     protected abstract String debugMsg();
 
+    public CtClass getTargetClass()
+    {
+        return ctMethodToPatch.getDeclaringClass();
+    }
+
+    public CtBehavior getTargetMethod()
+    {
+        return ctMethodToPatch;
+    }
+
     public static void nextMod()
     {
         ++modNum;
@@ -1,6 +1,7 @@
 package com.evacipated.cardcrawl.modthespire.patcher;
 
 import com.evacipated.cardcrawl.modthespire.Loader;
+import com.evacipated.cardcrawl.modthespire.patcher.javassist.PatchCallEmitter;
 
 import javassist.*;
 
@@ -66,7 +67,10 @@ public class PostfixPatchInfo extends PatchInfo
             if (Loader.DEBUG) {
                 System.out.println("      " + src);
             }
-            ctMethodToPatch.insertAfter(src);
+            // Source is only compiled when the call can't be emitted directly
+            if (!PatchCallEmitter.insertPostfix(ctMethodToPatch, patchMethod, returnsValue, takesResultParam)) {
+                ctMethodToPatch.insertAfter(src);
+            }
         } catch (CannotCompileException | NotFoundException e) {
             throw new PatchingException(e);
         }
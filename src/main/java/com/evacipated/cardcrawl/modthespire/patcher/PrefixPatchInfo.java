@@ -2,6 +2,7 @@ package com.evacipated.cardcrawl.modthespire.patcher;
 
 import com.evacipated.cardcrawl.modthespire.Loader;
 import com.evacipated.cardcrawl.modthespire.lib.SpireReturn;
+import com.evacipated.cardcrawl.modthespire.patcher.javassist.PatchCallEmitter;
 import javassist.*;
 
 public class PrefixPatchInfo extends PatchInfo
@@ -35,8 +36,10 @@ public class PrefixPatchInfo extends PatchInfo
             int paramOffset = (Modifier.isStatic(ctMethodToPatch.getModifiers()) ? 1 : 0);
             CtClass[] prefixParamTypes = patchMethod.getParameterTypes();
             Object[][] prefixParamAnnotations = patchMethod.getParameterAnnotations();
+            boolean[] byRef = new boolean[prefixParamTypes.length];
             for (int i = 0; i < prefixParamTypes.length; ++i) {
-                if (paramByRef(prefixParamAnnotations[i])) {
+                byRef[i] = paramByRef(prefixParamAnnotations[i]);
+                if (byRef[i]) {
                     src += prefixParamTypes[i].getName() + " __param" + i + " = new " + prefixParamTypes[i].getName() + "{" + "$" + (i + paramOffset) + "};\n";
                     funccall += "__param" + i;
 
@@ -88,20 +91,11 @@ public class PrefixPatchInfo extends PatchInfo
                 String earlyReturn = "if (opt.isPresent()) { return";
                 if (ctMethodToPatch instanceof CtMethod && !((CtMethod) ctMethodToPatch).getReturnType().equals(CtPrimitiveType.voidType)) {
                     CtClass toPatchReturnType = ((CtMethod) ctMethodToPatch).getReturnType();
-                    String toPatchReturnTypeName = toPatchReturnType.getName();
                     if (toPatchReturnType.isPrimitive()) {
-                        if (toPatchReturnType.equals(CtPrimitiveType.intType)) {
-                            toPatchReturnTypeName = "Integer";
-                        } else if (toPatchReturnType.equals(CtPrimitiveType.charType)) {
-                            toPatchReturnTypeName = "Character";
-                        } else {
-                            toPatchReturnTypeName = toPatchReturnTypeName.substring(0, 1).toUpperCase() + toPatchReturnTypeName.substring(1);
-                        }
-                        earlyReturn += " (";
-                    }
-                    earlyReturn += " (" + toPatchReturnTypeName + ")opt.get()";
-                    if (toPatchReturnType.isPrimitive()) {
-                        earlyReturn += ")." + toPatchReturnType.getName() + "Value()";
+                        // Doesn't box primitives returned with SpireReturn.ReturnInt and the like
+                        earlyReturn += " opt." + ((CtPrimitiveType) toPatchReturnType).getGetMethodName() + "()";
+                    } else {
+                        earlyReturn += " (" + toPatchReturnType.getName() + ")opt.get()";
                     }
                 }
                 earlyReturn += "; }\n";
@@ -116,6 +110,10 @@ public class PrefixPatchInfo extends PatchInfo
             if (Loader.DEBUG) {
                 System.out.println(src);
             }
+            // Source is only compiled when the call can't be emitted directly
+            if (PatchCallEmitter.insertPrefix(ctMethodToPatch, patchMethod, byRef, hasEarlyReturn)) {
+                return;
+            }
             try {
                 if (ctMethodToPatch instanceof CtConstructor && !((CtConstructor) ctMethodToPatch).isClassInitializer()) {
                     ((CtConstructor) ctMethodToPatch).insertBeforeBody(src);
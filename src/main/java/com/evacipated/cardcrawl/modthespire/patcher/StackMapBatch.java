@@ -0,0 +1,79 @@
+package com.evacipated.cardcrawl.modthespire.patcher;
+
+import javassist.CannotCompileException;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.ClassFile;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Rebuilds the stack map of each method once for a run of Prefix, Postfix, and Insert patches
+// javassist rebuilds it after every insert, but only for Java 6+ class files. While a batch is open
+// the target classes are marked as Java 5, so those rebuilds are skipped, and commit() rebuilds each
+// touched method from its final code. Nothing else reads the stack map in between, and the inserts
+// keep the old one's offsets up to date.
+// Only these patches are batched because they only compile MTS-generated calls into their own target
+// method. Instrument, Replace, and Raw patches run mod code that may change other methods.
+public class StackMapBatch
+{
+    private static final AtomicInteger batchedPatches = new AtomicInteger();
+    private static final AtomicInteger rebuilds = new AtomicInteger();
+
+    private final Map<CtClass, Integer> versions = new LinkedHashMap<>();
+    private final Set<CtBehavior> methods = new LinkedHashSet<>();
+
+    public static boolean canBatch(PatchInfo p)
+    {
+        return p instanceof PrefixPatchInfo || p instanceof PostfixPatchInfo || p instanceof InsertPatchInfo;
+    }
+
+    // Call before applying the patch
+    public void add(PatchInfo p)
+    {
+        CtClass cc = p.getTargetClass();
+        if (!versions.containsKey(cc)) {
+            ClassFile cf = cc.getClassFile();
+            versions.put(cc, cf.getMajorVersion());
+            if (cf.getMajorVersion() >= ClassFile.JAVA_6) {
+                cf.setMajorVersion(ClassFile.JAVA_5);
+            }
+        }
+        methods.add(p.getTargetMethod());
+        batchedPatches.incrementAndGet();
+    }
+
+    public void commit() throws CannotCompileException
+    {
+        restore();
+        try {
+            for (CtBehavior method : methods) {
+                CtClass cc = method.getDeclaringClass();
+                method.getMethodInfo().rebuildStackMapIf6(cc.getClassPool(), cc.getClassFile());
+                rebuilds.incrementAndGet();
+            }
+        } catch (BadBytecode e) {
+            throw new CannotCompileException(e);
+        } finally {
+            methods.clear();
+        }
+    }
+
+    // Puts the class file versions back without rebuilding anything, for when patching failed
+    public void restore()
+    {
+        for (Map.Entry<CtClass, Integer> version : versions.entrySet()) {
+            version.getKey().getClassFile2().setMajorVersion(version.getValue());
+        }
+        versions.clear();
+    }
+
+    public static void printStats()
+    {
+        System.out.println("Stack maps: " + rebuilds.get() + " rebuilds for " + batchedPatches.get() + " Prefix/Postfix/Insert patches");
+    }
+}
@@ -0,0 +1,195 @@
+package com.evacipated.cardcrawl.modthespire.patcher.javassist;
+
+import javassist.CannotCompileException;
+import javassist.CtClass;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.MethodInfo;
+import javassist.expr.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs several ExprEditors over a method in a single pass
+// Each expression is offered to the editors in order. Once one replaces it, the editors after it are
+// run over the replacement code instead, the same way Expr.replace(String, ExprEditor) does, so every
+// editor sees exactly what its own pass would have seen after the ones before it.
+// Catch clauses are only visited after all of the code, so an editor that edits them can only be the
+// last one in a chain, see chain().
+public class ChainedExprEditor extends ExprEditor
+{
+    private static final Field EDITED;
+    private static final Field ITERATOR;
+    private static final Method RUN_EDITOR;
+
+    static {
+        try {
+            EDITED = Expr.class.getDeclaredField("edited");
+            EDITED.setAccessible(true);
+            ITERATOR = Expr.class.getDeclaredField("iterator");
+            ITERATOR.setAccessible(true);
+            RUN_EDITOR = Expr.class.getDeclaredMethod("runEditor", ExprEditor.class, CodeIterator.class);
+            RUN_EDITOR.setAccessible(true);
+        } catch (NoSuchFieldException | NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final List<ExprEditor> editors;
+
+    private ChainedExprEditor(List<ExprEditor> editors)
+    {
+        this.editors = editors;
+    }
+
+    // Groups editors into as few passes as possible, in order
+    public static List<ExprEditor> chain(List<ExprEditor> editors)
+    {
+        List<ExprEditor> passes = new ArrayList<>();
+        List<ExprEditor> chain = new ArrayList<>();
+        for (ExprEditor editor : editors) {
+            // Does its own walk, can't be offered single expressions
+            if (overrides(editor, "doit", CtClass.class, MethodInfo.class)) {
+                addPass(passes, chain);
+                chain = new ArrayList<>();
+                passes.add(editor);
+                continue;
+            }
+            chain.add(editor);
+            if (overrides(editor, "edit", Handler.class)) {
+                addPass(passes, chain);
+                chain = new ArrayList<>();
+            }
+        }
+        addPass(passes, chain);
+        return passes;
+    }
+
+    private static void addPass(List<ExprEditor> passes, List<ExprEditor> chain)
+    {
+        if (chain.size() == 1) {
+            passes.add(chain.get(0));
+        } else if (chain.size() > 1) {
+            passes.add(new ChainedExprEditor(chain));
+        }
+    }
+
+    private static boolean overrides(ExprEditor editor, String name, Class<?>... parameterTypes)
+    {
+        try {
+            return editor.getClass().getMethod(name, parameterTypes).getDeclaringClass() != ExprEditor.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    // Whether editor i replaced the expression, in which case the rest of the chain has been run over
+    // the replacement and the expression shouldn't be offered to anyone else
+    private boolean replaced(Expr expr, int i) throws CannotCompileException
+    {
+        try {
+            if (!EDITED.getBoolean(expr)) {
+                return false;
+            }
+            if (i + 1 < editors.size()) {
+                RUN_EDITOR.invoke(expr, new ChainedExprEditor(editors.subList(i + 1, editors.size())), ITERATOR.get(expr));
+            }
+            return true;
+        } catch (IllegalAccessException e) {
+            throw new CannotCompileException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof CannotCompileException) {
+                throw (CannotCompileException) e.getCause();
+            }
+            throw new CannotCompileException(e.getCause());
+        }
+    }
+
+    @Override
+    public void edit(NewExpr e) throws CannotCompileException
+    {
+        for (int i = 0; i < editors.size(); ++i) {
+            editors.get(i).edit(e);
+            if (replaced(e, i)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(NewArray a) throws CannotCompileException
+    {
+        for (int i = 0; i < editors.size(); ++i) {
+            editors.get(i).edit(a);
+            if (replaced(a, i)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(MethodCall m) throws CannotCompileException
+    {
+        for (int i = 0; i < editors.size(); ++i) {
+            editors.get(i).edit(m);
+            if (replaced(m, i)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(ConstructorCall c) throws CannotCompileException
+    {
+        for (int i = 0; i < editors.size(); ++i) {
+            editors.get(i).edit(c);
+            if (replaced(c, i)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(FieldAccess f) throws CannotCompileException
+    {
+        for (int i = 0; i < editors.size(); ++i) {
+            editors.get(i).edit(f);
+            if (replaced(f, i)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(Instanceof i) throws CannotCompileException
+    {
+        for (int n = 0; n < editors.size(); ++n) {
+            editors.get(n).edit(i);
+            if (replaced(i, n)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(Cast c) throws CannotCompileException
+    {
+        for (int i = 0; i < editors.size(); ++i) {
+            editors.get(i).edit(c);
+            if (replaced(c, i)) {
+                return;
+            }
+        }
+    }
+
+    // Only the last editor of a chain edits catch clauses
+    @Override
+    public void edit(Handler h) throws CannotCompileException
+    {
+        for (ExprEditor editor : editors) {
+            editor.edit(h);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.evacipated.cardcrawl.modthespire.patcher.javassist;
+
+import com.evacipated.cardcrawl.modthespire.lib.SpireReturn;
+import javassist.*;
+import javassist.bytecode.*;
+
+// Writes the bytecode for Prefix and Postfix patch calls directly, skipping javassist's source compiler
+// Only the cases where the compiled source would be a plain static call with no conversions are handled.
+// For anything else insertPrefix/insertPostfix return false without touching the method, and the caller
+// compiles source like it always has.
+public class PatchCallEmitter
+{
+    private static final String SPIRE_RETURN = SpireReturn.class.getName();
+
+    // Same as compiling
+    //   T[] __paramI = new T[]{$k}; ...
+    //   [SpireReturn opt =] Patch.Prefix($0, $1, __paramI, ...);
+    //   $k = (T) __paramI[0]; ...
+    //   [if (opt.isPresent()) { return (R) opt.get(); }], or opt.intValue() and the like for primitive R
+    // and inserting it with insertBefore, or insertBeforeBody for constructors
+    public static boolean insertPrefix(CtBehavior ctMethodToPatch, CtMethod patchMethod, boolean[] byRef, boolean earlyReturn)
+        throws CannotCompileException, NotFoundException
+    {
+        if (!isPlainStaticCall(patchMethod)) {
+            return false;
+        }
+
+        boolean isStatic = Modifier.isStatic(ctMethodToPatch.getModifiers());
+        CtClass[] targetParams = ctMethodToPatch.getParameterTypes();
+        CtClass[] patchParams = patchMethod.getParameterTypes();
+        int paramOffset = isStatic ? 1 : 0;
+        if (patchParams.length + paramOffset > targetParams.length + 1) {
+            return false;
+        }
+
+        for (int i = 0; i < patchParams.length; ++i) {
+            int k = i + paramOffset;
+            CtClass argType = k == 0 ? ctMethodToPatch.getDeclaringClass() : targetParams[k - 1];
+            if (byRef[i]) {
+                // Writing back to $0 isn't possible
+                if (k == 0 || !patchParams[i].isArray() || !isAssignable(argType, patchParams[i].getComponentType())) {
+                    return false;
+                }
+            } else if (!isAssignable(argType, patchParams[i])) {
+                return false;
+            }
+        }
+
+        MethodInfo methodInfo = ctMethodToPatch.getMethodInfo();
+        CodeAttribute ca = methodInfo.getCodeAttribute();
+        if (ca == null) {
+            return false;
+        }
+
+        Bytecode b = new Bytecode(methodInfo.getConstPool(), 0, ca.getMaxLocals());
+
+        int[] arrays = new int[patchParams.length];
+        for (int i = 0; i < patchParams.length; ++i) {
+            if (byRef[i]) {
+                CtClass component = patchParams[i].getComponentType();
+                arrays[i] = b.getMaxLocals();
+                b.incMaxLocals(1);
+                if (component.isPrimitive()) {
+                    b.addNewarray(((CtPrimitiveType) component).getArrayType(), 1);
+                } else {
+                    b.addAnewarray(component, 1);
+                }
+                b.addOpcode(Opcode.DUP);
+                b.addIconst(0);
+                loadParam(b, ctMethodToPatch, targetParams, i + paramOffset);
+                b.addOpcode(arrayOp(component, true));
+                b.addAstore(arrays[i]);
+            }
+        }
+
+        for (int i = 0; i < patchParams.length; ++i) {
+            if (byRef[i]) {
+                b.addAload(arrays[i]);
+            } else {
+                loadParam(b, ctMethodToPatch, targetParams, i + paramOffset);
+            }
+        }
+        b.addInvokestatic(patchMethod.getDeclaringClass(), patchMethod.getName(), patchMethod.getMethodInfo2().getDescriptor());
+
+        int opt = -1;
+        if (earlyReturn) {
+            opt = b.getMaxLocals();
+            b.incMaxLocals(1);
+            b.addAstore(opt);
+        } else {
+            discard(b, patchMethod.getReturnType());
+        }
+
+        for (int i = 0; i < patchParams.length; ++i) {
+            if (byRef[i]) {
+                int k = i + paramOffset;
+                CtClass type = targetParams[k - 1];
+                b.addAload(arrays[i]);
+                b.addIconst(0);
+                b.addOpcode(arrayOp(patchParams[i].getComponentType(), false));
+                if (!type.isPrimitive()) {
+                    b.addCheckcast(type);
+                }
+                b.addStore(paramSlot(ctMethodToPatch, targetParams, k), type);
+            }
+        }
+
+        if (earlyReturn) {
+            b.addAload(opt);
+            b.addInvokevirtual(SPIRE_RETURN, "isPresent", "()Z");
+            int branch = b.currentPc();
+            b.addOpcode(Opcode.IFEQ);
+            b.addIndex(0);
+            CtClass returnType = ctMethodToPatch instanceof CtMethod ? ((CtMethod) ctMethodToPatch).getReturnType() : CtClass.voidType;
+            if (returnType == CtClass.voidType) {
+                b.addOpcode(Opcode.RETURN);
+            } else {
+                b.addAload(opt);
+                if (returnType.isPrimitive()) {
+                    // SpireReturn has the same xValue() methods as the wrappers
+                    CtPrimitiveType primitive = (CtPrimitiveType) returnType;
+                    b.addInvokevirtual(SPIRE_RETURN, primitive.getGetMethodName(), primitive.getGetMethodDescriptor());
+                    b.addOpcode(primitive.getReturnOp());
+                } else {
+                    b.addInvokevirtual(SPIRE_RETURN, "get", "()Ljava/lang/Object;");
+                    b.addCheckcast(returnType);
+                    b.addOpcode(Opcode.ARETURN);
+                }
+            }
+            b.write16bit(branch + 1, b.currentPc() - branch);
+        }
+
+        try {
+            CodeIterator iterator = ca.iterator();
+            if (ctMethodToPatch instanceof CtConstructor && !((CtConstructor) ctMethodToPatch).isClassInitializer()) {
+                iterator.skipConstructor();
+            }
+            iterator.insertEx(b.get());
+            ca.setMaxStack(Math.max(ca.getMaxStack(), b.getMaxStack()));
+            ca.setMaxLocals(Math.max(ca.getMaxLocals(), b.getMaxLocals()));
+            rebuildStackMap(ctMethodToPatch, methodInfo);
+        } catch (BadBytecode e) {
+            throw new CannotCompileException(e);
+        }
+        return true;
+    }
+
+    // Same as compiling
+    //   [return ($r)] Patch.Postfix([$_,] [$0,] $$);
+    // and inserting it with insertAfter
+    // The call is placed in front of every return instead of javassist's single shared block, so returns
+    // covered by an exception handler aren't handled here: the call would end up inside the try.
+    public static boolean insertPostfix(CtBehavior ctMethodToPatch, CtMethod patchMethod, boolean returnsValue, boolean takesResultParam)
+        throws CannotCompileException, NotFoundException
+    {
+        if (!isPlainStaticCall(patchMethod)) {
+            return false;
+        }
+
+        boolean isStatic = Modifier.isStatic(ctMethodToPatch.getModifiers());
+        CtClass[] targetParams = ctMethodToPatch.getParameterTypes();
+        CtClass[] patchParams = patchMethod.getParameterTypes();
+        CtClass returnType = ctMethodToPatch instanceof CtMethod ? ((CtMethod) ctMethodToPatch).getReturnType() : CtClass.voidType;
+
+        int nargs = (takesResultParam ? 1 : 0) + (isStatic ? 0 : 1) + targetParams.length;
+        if (patchParams.length != nargs) {
+            return false;
+        }
+        if (returnsValue) {
+            CtClass patchReturnType = patchMethod.getReturnType();
+            if (returnType == CtClass.voidType) {
+                return false;
+            }
+            if ((returnType.isPrimitive() || patchReturnType.isPrimitive()) && returnType != patchReturnType) {
+                return false;
+            }
+        }
+        int p = 0;
+        if (takesResultParam && (returnType == CtClass.voidType || !isAssignable(returnType, patchParams[p++]))) {
+            return false;
+        }
+        if (!isStatic && !isAssignable(ctMethodToPatch.getDeclaringClass(), patchParams[p++])) {
+            return false;
+        }
+        for (CtClass param : targetParams) {
+            if (!isAssignable(param, patchParams[p++])) {
+                return false;
+            }
+        }
+
+        MethodInfo methodInfo = ctMethodToPatch.getMethodInfo();
+        CodeAttribute ca = methodInfo.getCodeAttribute();
+        if (ca == null) {
+            return false;
+        }
+
+        ExceptionTable exceptionTable = ca.getExceptionTable();
+        CodeIterator iterator = ca.iterator();
+        try {
+            while (iterator.hasNext()) {
+                int pos = iterator.next();
+                if (isReturn(iterator.byteAt(pos))) {
+                    for (int i = 0; i < exceptionTable.size(); ++i) {
+                        if (exceptionTable.startPc(i) <= pos && pos < exceptionTable.endPc(i)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        } catch (BadBytecode e) {
+            throw new CannotCompileException(e);
+        }
+
+        // The value being returned is already on the stack
+        Bytecode b = new Bytecode(methodInfo.getConstPool(), 0, ca.getMaxLocals());
+        b.setStackDepth(returnType == CtClass.voidType ? 0 : returnType.isPrimitive() ? ((CtPrimitiveType) returnType).getDataSize() : 1);
+        if (returnsValue && !takesResultParam) {
+            discard(b, returnType);
+        }
+        if (!isStatic) {
+            b.addAload(0);
+        }
+        for (int k = 1; k <= targetParams.length; ++k) {
+            loadParam(b, ctMethodToPatch, targetParams, k);
+        }
+        b.addInvokestatic(patchMethod.getDeclaringClass(), patchMethod.getName(), patchMethod.getMethodInfo2().getDescriptor());
+        if (returnsValue && !returnType.isPrimitive()) {
+            b.addCheckcast(returnType);
+        }
+
+        byte[] code = b.get();
+        try {
+            iterator = ca.iterator();
+            while (iterator.hasNext()) {
+                int pos = iterator.next();
+                if (isReturn(iterator.byteAt(pos))) {
+                    // Not exclusive, so jumps to the return now land on the call
+                    iterator.insertAt(pos, code);
+                }
+            }
+            // Whatever was under the return value is still on the stack
+            ca.setMaxStack(ca.getMaxStack() + b.getMaxStack());
+            rebuildStackMap(ctMethodToPatch, methodInfo);
+        } catch (BadBytecode e) {
+            throw new CannotCompileException(e);
+        }
+        return true;
+    }
+
+    // The compiler picks the method by name and argument types, so only a method that can't be
+    // confused with an overload is called directly
+    private static boolean isPlainStaticCall(CtMethod patchMethod) throws NotFoundException
+    {
+        int mod = patchMethod.getModifiers();
+        if (!Modifier.isStatic(mod) || Modifier.isPrivate(mod)) {
+            return false;
+        }
+        CtClass patchClass = patchMethod.getDeclaringClass();
+        if (patchClass.isInterface() || patchClass.getDeclaredMethods(patchMethod.getName()).length != 1) {
+            return false;
+        }
+        for (CtClass c = patchClass.getSuperclass(); c != null; c = c.getSuperclass()) {
+            if (c.getDeclaredMethods(patchMethod.getName()).length != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Passing from as to without any conversion
+    private static boolean isAssignable(CtClass from, CtClass to) throws NotFoundException
+    {
+        if (from.isPrimitive() || to.isPrimitive()) {
+            return from == to;
+        }
+        return from.subtypeOf(to);
+    }
+
+    private static int paramSlot(CtBehavior ctMethodToPatch, CtClass[] params, int k)
+    {
+        int slot = Modifier.isStatic(ctMethodToPatch.getModifiers()) ? 0 : 1;
+        for (int i = 0; i < k - 1; ++i) {
+            slot += (params[i] == CtClass.longType || params[i] == CtClass.doubleType) ? 2 : 1;
+        }
+        return slot;
+    }
+
+    // Loads $k
+    private static void loadParam(Bytecode b, CtBehavior ctMethodToPatch, CtClass[] params, int k)
+    {
+        if (k == 0) {
+            b.addAload(0);
+        } else {
+            b.addLoad(paramSlot(ctMethodToPatch, params, k), params[k - 1]);
+        }
+    }
+
+    private static void discard(Bytecode b, CtClass type)
+    {
+        if (type == CtClass.longType || type == CtClass.doubleType) {
+            b.addOpcode(Opcode.POP2);
+        } else if (type != CtClass.voidType) {
+            b.addOpcode(Opcode.POP);
+        }
+    }
+
+    private static int arrayOp(CtClass component, boolean store)
+    {
+        if (component == CtClass.booleanType || component == CtClass.byteType) {
+            return store ? Opcode.BASTORE : Opcode.BALOAD;
+        } else if (component == CtClass.charType) {
+            return store ? Opcode.CASTORE : Opcode.CALOAD;
+        } else if (component == CtClass.shortType) {
+            return store ? Opcode.SASTORE : Opcode.SALOAD;
+        } else if (component == CtClass.intType) {
+            return store ? Opcode.IASTORE : Opcode.IALOAD;
+        } else if (component == CtClass.longType) {
+            return store ? Opcode.LASTORE : Opcode.LALOAD;
+        } else if (component == CtClass.floatType) {
+            return store ? Opcode.FASTORE : Opcode.FALOAD;
+        } else if (component == CtClass.doubleType) {
+            return store ? Opcode.DASTORE : Opcode.DALOAD;
+        }
+        return store ? Opcode.AASTORE : Opcode.AALOAD;
+    }
+
+    private static boolean isReturn(int op)
+    {
+        return op == Opcode.ARETURN || op == Opcode.IRETURN || op == Opcode.FRETURN
+            || op == Opcode.LRETURN || op == Opcode.DRETURN || op == Opcode.RETURN;
+    }
+
+    private static void rebuildStackMap(CtBehavior ctMethodToPatch, MethodInfo methodInfo) throws BadBytecode
+    {
+        CtClass cc = ctMethodToPatch.getDeclaringClass();
+        methodInfo.rebuildStackMapIf6(cc.getClassPool(), cc.getClassFile2());
+    }
+}
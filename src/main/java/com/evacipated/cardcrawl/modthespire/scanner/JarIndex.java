@@ -0,0 +1,181 @@
+package com.evacipated.cardcrawl.modthespire.scanner;
+
+import org.scannotation.AnnotationDB;
+
+import java.io.Serializable;
+import java.util.*;
+
+// Everything MTS needs to know about a jar's annotations, gathered in a single pass by JarScanner
+// Class names are binary names (a.b.Outer$Inner), same as Class.getName()
+public class JarIndex implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    // Same layout as scannotation's AnnotationDB, so it can still be handed to mods
+    final Map<String, Set<String>> annotationIndex = new HashMap<>();
+    final Map<String, Set<String>> classIndex = new HashMap<>();
+    final Map<String, Set<String>> implementsIndex = new HashMap<>();
+
+    final Map<String, PatchClass> patchClasses = new HashMap<>();
+    final List<EnumField> enumFields = new ArrayList<>();
+    final Map<String, List<Method>> overrides = new LinkedHashMap<>();
+    // $SwitchMap$ field name -> classes holding it
+    final Map<String, List<String>> switchMaps = new LinkedHashMap<>();
+
+    public Set<String> getAnnotated(String annotation)
+    {
+        return annotationIndex.get(annotation);
+    }
+
+    public PatchClass getPatchClass(String className)
+    {
+        return patchClasses.get(className);
+    }
+
+    public Map<String, PatchClass> getPatchClasses()
+    {
+        return patchClasses;
+    }
+
+    public List<EnumField> getEnumFields()
+    {
+        return enumFields;
+    }
+
+    // Class name -> methods marked @SpireOverride
+    public Map<String, List<Method>> getOverrides()
+    {
+        return overrides;
+    }
+
+    public Map<String, List<String>> getSwitchMaps()
+    {
+        return switchMaps;
+    }
+
+    public AnnotationDB toAnnotationDB()
+    {
+        return new IndexAnnotationDB(this);
+    }
+
+    void addAnnotation(String annotation, String className)
+    {
+        annotationIndex.computeIfAbsent(annotation, k -> new LinkedHashSet<>()).add(className);
+        classIndex.computeIfAbsent(className, k -> new LinkedHashSet<>()).add(annotation);
+    }
+
+    public static class Method implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public final String name;
+        public final String descriptor;
+
+        Method(String name, String descriptor)
+        {
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+    }
+
+    // A class annotated with @SpirePatch or @SpirePatches
+    public static class PatchClass implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public final String name;
+        public final List<Patch> patches = new ArrayList<>();
+        public final List<PatchMethod> methods = new ArrayList<>();
+
+        PatchClass(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    // A single @SpirePatch
+    public static class Patch implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        // null when left as void.class
+        public String clz = null;
+        public String cls = "";
+        public String method = null;
+        // null when left as the default
+        public String[] paramtypez = null;
+        public String[] paramtypes = null;
+        public boolean optional = false;
+
+        public String targetName()
+        {
+            return clz != null ? clz : cls;
+        }
+    }
+
+    public enum PatchKind
+    {
+        PREFIX, POSTFIX, LOCATOR, INSERT, INSTRUMENT, REPLACE, RAW, NONE
+    }
+
+    public static class PatchMethod extends Method
+    {
+        private static final long serialVersionUID = 1L;
+
+        public final PatchKind kind;
+        // null unless the method is annotated with @SpireInsertPatch
+        public final InsertPatch insert;
+
+        PatchMethod(String name, String descriptor, PatchKind kind, InsertPatch insert)
+        {
+            super(name, descriptor);
+            this.kind = kind;
+            this.insert = insert;
+        }
+    }
+
+    // A single @SpireInsertPatch
+    public static class InsertPatch implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        // null when left as SpireInsertPatch.NONE
+        public String locator = null;
+        public int loc = -1;
+        public int rloc = -1;
+        public int[] locs = new int[0];
+        public int[] rlocs = new int[0];
+        public String[] localvars = new String[0];
+    }
+
+    // A static field annotated with @SpireEnum
+    public static class EnumField implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public final String owner;
+        public final String field;
+        public final String enumType;
+        public final String enumName;
+
+        EnumField(String owner, String field, String enumType, String enumName)
+        {
+            this.owner = owner;
+            this.field = field;
+            this.enumType = enumType;
+            this.enumName = enumName;
+        }
+    }
+
+    private static class IndexAnnotationDB extends AnnotationDB
+    {
+        private static final long serialVersionUID = 1L;
+
+        IndexAnnotationDB(JarIndex index)
+        {
+            annotationIndex = index.annotationIndex;
+            classIndex = index.classIndex;
+            implementsIndex = index.implementsIndex;
+        }
+    }
+}
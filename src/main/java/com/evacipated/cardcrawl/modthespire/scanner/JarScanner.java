@@ -0,0 +1,412 @@
+package com.evacipated.cardcrawl.modthespire.scanner;
+
+import com.evacipated.cardcrawl.modthespire.lib.*;
+import org.objectweb.asm.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Reads every class file in a jar exactly once and builds a JarIndex from its annotations
+// Only annotations are visited, method bodies and debug info are skipped
+public class JarScanner
+{
+    private static final String SPIRE_PATCH = Type.getDescriptor(SpirePatch.class);
+    private static final String SPIRE_PATCHES = Type.getDescriptor(SpirePatches.class);
+    private static final String SPIRE_PREFIX = Type.getDescriptor(SpirePrefixPatch.class);
+    private static final String SPIRE_POSTFIX = Type.getDescriptor(SpirePostfixPatch.class);
+    private static final String SPIRE_INSERT = Type.getDescriptor(SpireInsertPatch.class);
+    private static final String SPIRE_OVERRIDE = Type.getDescriptor(SpireOverride.class);
+    private static final String SPIRE_ENUM = Type.getDescriptor(SpireEnum.class);
+    private static final String INSERT_NONE = Type.getInternalName(SpireInsertPatch.NONE.class);
+
+    private static final int PARSING_OPTIONS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    public static JarIndex scan(URL url) throws IOException
+    {
+        JarIndex index = new JarIndex();
+        try (ZipInputStream in = new ZipInputStream(url.openStream())) {
+            byte[] buffer = new byte[8192];
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                try {
+                    scanClass(index, bytes.toByteArray());
+                } catch (RuntimeException e) {
+                    throw new IOException("Failed to read " + entry.getName() + " in " + url, e);
+                }
+            }
+        }
+        return index;
+    }
+
+    public static JarIndex scanClass(InputStream in) throws IOException
+    {
+        JarIndex index = new JarIndex();
+        new ClassReader(in).accept(new IndexClassVisitor(index), PARSING_OPTIONS);
+        return index;
+    }
+
+    public static void scanClass(JarIndex index, byte[] b)
+    {
+        new ClassReader(b).accept(new IndexClassVisitor(index), PARSING_OPTIONS);
+    }
+
+    private static String toClassName(String desc)
+    {
+        return Type.getType(desc).getClassName();
+    }
+
+    private static class IndexClassVisitor extends ClassVisitor
+    {
+        private final JarIndex index;
+        private String className;
+        private final List<JarIndex.Patch> patches = new ArrayList<>();
+        private final List<MethodRecord> methods = new ArrayList<>();
+
+        IndexClassVisitor(JarIndex index)
+        {
+            super(Opcodes.ASM6);
+            this.index = index;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+        {
+            className = name.replace('/', '.');
+            // Like scannotation, every class gets an entry in both, even with no annotations or interfaces
+            index.classIndex.computeIfAbsent(className, k -> new LinkedHashSet<>());
+            Set<String> names = new LinkedHashSet<>();
+            if (interfaces != null) {
+                for (String i : interfaces) {
+                    names.add(i.replace('/', '.'));
+                }
+            }
+            index.implementsIndex.put(className, names);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible)
+        {
+            index.addAnnotation(toClassName(desc), className);
+            if (SPIRE_PATCH.equals(desc)) {
+                return new PatchVisitor(patches);
+            } else if (SPIRE_PATCHES.equals(desc)) {
+                return new AnnotationVisitor(Opcodes.ASM6)
+                {
+                    @Override
+                    public AnnotationVisitor visitArray(String name)
+                    {
+                        return new AnnotationVisitor(Opcodes.ASM6)
+                        {
+                            @Override
+                            public AnnotationVisitor visitAnnotation(String name, String desc)
+                            {
+                                return new PatchVisitor(patches);
+                            }
+                        };
+                    }
+                };
+            }
+            return null;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value)
+        {
+            if (name.startsWith("$SwitchMap$")) {
+                index.switchMaps.computeIfAbsent(name, k -> new ArrayList<>()).add(className);
+            }
+            return new FieldVisitor(Opcodes.ASM6)
+            {
+                private String enumName = null;
+
+                @Override
+                public AnnotationVisitor visitAnnotation(String annotationDesc, boolean visible)
+                {
+                    index.addAnnotation(toClassName(annotationDesc), className);
+                    if (SPIRE_ENUM.equals(annotationDesc)) {
+                        enumName = name;
+                        return new AnnotationVisitor(Opcodes.ASM6)
+                        {
+                            @Override
+                            public void visit(String key, Object value)
+                            {
+                                if (key.equals("name") && !((String) value).isEmpty()) {
+                                    enumName = (String) value;
+                                }
+                            }
+                        };
+                    }
+                    return null;
+                }
+
+                @Override
+                public void visitEnd()
+                {
+                    if (enumName != null) {
+                        index.enumFields.add(new JarIndex.EnumField(className, name, toClassName(desc), enumName));
+                    }
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions)
+        {
+            MethodRecord record = new MethodRecord(name, desc);
+            methods.add(record);
+            return new MethodVisitor(Opcodes.ASM6)
+            {
+                @Override
+                public AnnotationVisitor visitAnnotation(String annotationDesc, boolean visible)
+                {
+                    index.addAnnotation(toClassName(annotationDesc), className);
+                    record.annotations.add(annotationDesc);
+                    if (SPIRE_INSERT.equals(annotationDesc)) {
+                        record.insert = new JarIndex.InsertPatch();
+                        return new InsertVisitor(record.insert);
+                    }
+                    return null;
+                }
+
+                @Override
+                public AnnotationVisitor visitParameterAnnotation(int parameter, String annotationDesc, boolean visible)
+                {
+                    index.addAnnotation(toClassName(annotationDesc), className);
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public void visitEnd()
+        {
+            addClass(index, className, patches, methods);
+        }
+    }
+
+    // Overrides and patches of a class, once all its annotations and methods are known
+    // Shared with PatchManifest, which has the same things gathered from source
+    static void addClass(JarIndex index, String className, List<JarIndex.Patch> patches, List<MethodRecord> methods)
+    {
+        List<JarIndex.Method> overrides = new ArrayList<>();
+        for (MethodRecord m : methods) {
+            if (m.annotations.contains(SPIRE_OVERRIDE)) {
+                overrides.add(new JarIndex.Method(m.name, m.desc));
+            }
+        }
+        if (!overrides.isEmpty()) {
+            index.overrides.put(className, overrides);
+        }
+
+        if (patches.isEmpty()) {
+            return;
+        }
+        JarIndex.PatchClass patchClass = new JarIndex.PatchClass(className);
+        patchClass.patches.addAll(patches);
+        for (MethodRecord m : methods) {
+            if (m.name.startsWith("<")) {
+                continue;
+            }
+            JarIndex.PatchKind kind = m.kind();
+            if (kind != JarIndex.PatchKind.NONE) {
+                patchClass.methods.add(new JarIndex.PatchMethod(m.name, m.desc, kind, m.insert));
+            }
+        }
+        index.patchClasses.put(className, patchClass);
+    }
+
+    static class MethodRecord
+    {
+        final String name;
+        final String desc;
+        final Set<String> annotations = new HashSet<>();
+        JarIndex.InsertPatch insert = null;
+
+        MethodRecord(String name, String desc)
+        {
+            this.name = name;
+            this.desc = desc;
+        }
+
+        // Same precedence as Patcher.injectPatches has always used
+        JarIndex.PatchKind kind()
+        {
+            if (name.equals("Prefix") || annotations.contains(SPIRE_PREFIX)) {
+                return JarIndex.PatchKind.PREFIX;
+            } else if (name.equals("Postfix") || annotations.contains(SPIRE_POSTFIX)) {
+                return JarIndex.PatchKind.POSTFIX;
+            } else if (name.equals("Locator")) {
+                return JarIndex.PatchKind.LOCATOR;
+            } else if (name.equals("Insert") || annotations.contains(SPIRE_INSERT)) {
+                return JarIndex.PatchKind.INSERT;
+            } else if (name.equals("Instrument")) {
+                return JarIndex.PatchKind.INSTRUMENT;
+            } else if (name.equals("Replace")) {
+                return JarIndex.PatchKind.REPLACE;
+            } else if (name.equals("Raw")) {
+                return JarIndex.PatchKind.RAW;
+            }
+            return JarIndex.PatchKind.NONE;
+        }
+    }
+
+    private static class PatchVisitor extends AnnotationVisitor
+    {
+        private final List<JarIndex.Patch> patches;
+        private final JarIndex.Patch patch = new JarIndex.Patch();
+
+        PatchVisitor(List<JarIndex.Patch> patches)
+        {
+            super(Opcodes.ASM6);
+            this.patches = patches;
+        }
+
+        @Override
+        public void visit(String name, Object value)
+        {
+            switch (name) {
+                case "clz":
+                    if (!Type.VOID_TYPE.equals(value)) {
+                        patch.clz = ((Type) value).getClassName();
+                    }
+                    break;
+                case "cls":
+                    patch.cls = (String) value;
+                    break;
+                case "method":
+                    patch.method = (String) value;
+                    break;
+                case "optional":
+                    patch.optional = (Boolean) value;
+                    break;
+            }
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name)
+        {
+            switch (name) {
+                case "paramtypez":
+                    return new ValueListVisitor(values -> {
+                        if (values.size() != 1 || !Type.VOID_TYPE.equals(values.get(0))) {
+                            String[] names = new String[values.size()];
+                            for (int i = 0; i < names.length; ++i) {
+                                names[i] = ((Type) values.get(i)).getClassName();
+                            }
+                            patch.paramtypez = names;
+                        }
+                    });
+                case "paramtypes":
+                    return new ValueListVisitor(values -> {
+                        if (values.size() != 1 || !"DEFAULT".equals(values.get(0))) {
+                            patch.paramtypes = values.toArray(new String[0]);
+                        }
+                    });
+            }
+            return null;
+        }
+
+        @Override
+        public void visitEnd()
+        {
+            patches.add(patch);
+        }
+    }
+
+    private static class InsertVisitor extends AnnotationVisitor
+    {
+        private final JarIndex.InsertPatch insert;
+
+        InsertVisitor(JarIndex.InsertPatch insert)
+        {
+            super(Opcodes.ASM6);
+            this.insert = insert;
+        }
+
+        @Override
+        public void visit(String name, Object value)
+        {
+            switch (name) {
+                case "locator":
+                    if (!INSERT_NONE.equals(((Type) value).getInternalName())) {
+                        insert.locator = ((Type) value).getClassName();
+                    }
+                    break;
+                case "loc":
+                    insert.loc = (Integer) value;
+                    break;
+                case "rloc":
+                    insert.rloc = (Integer) value;
+                    break;
+                // Primitive arrays may be reported in one go
+                case "locs":
+                    insert.locs = (int[]) value;
+                    break;
+                case "rlocs":
+                    insert.rlocs = (int[]) value;
+                    break;
+            }
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name)
+        {
+            switch (name) {
+                case "locs":
+                    return new ValueListVisitor(values -> insert.locs = toIntArray(values));
+                case "rlocs":
+                    return new ValueListVisitor(values -> insert.rlocs = toIntArray(values));
+                case "localvars":
+                    return new ValueListVisitor(values -> insert.localvars = values.toArray(new String[0]));
+            }
+            return null;
+        }
+
+        private static int[] toIntArray(List<Object> values)
+        {
+            int[] ret = new int[values.size()];
+            for (int i = 0; i < ret.length; ++i) {
+                ret[i] = (Integer) values.get(i);
+            }
+            return ret;
+        }
+    }
+
+    private static class ValueListVisitor extends AnnotationVisitor
+    {
+        private final List<Object> values = new ArrayList<>();
+        private final Consumer<List<Object>> onEnd;
+
+        ValueListVisitor(Consumer<List<Object>> onEnd)
+        {
+            super(Opcodes.ASM6);
+            this.onEnd = onEnd;
+        }
+
+        @Override
+        public void visit(String name, Object value)
+        {
+            values.add(value);
+        }
+
+        @Override
+        public void visitEnd()
+        {
+            onEnd.accept(values);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.evacipated.cardcrawl.modthespire.scanner;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// What PatchManifestProcessor found at compile time, stored in the mod jar as JSON
+// It's only what's in each class file's annotations, in its own layout rather than JarIndex's, so
+// the format only changes along with FORMAT_VERSION
+// The processor only sees classes compiled from source, so javac's numbered classes (anonymous
+// classes, $SwitchMap$ holders) are still read from the jar, which is far fewer than all of them.
+// The manifest is stale, and the jar is scanned as usual, unless it accounts for exactly the classes
+// in the jar and each one's CRC matches the one the zip's central directory has for it. That catches
+// incremental builds the processor only saw part of, classes added after it ran, and classes that
+// were rebuilt or rewritten (obfuscated, shaded) without it.
+public class PatchManifest
+{
+    public static final String PATH = "META-INF/modthespire/patches.json";
+    static final int FORMAT_VERSION = 3;
+
+    int formatVersion;
+    final List<ClassEntry> classes = new ArrayList<>();
+
+    static class ClassEntry
+    {
+        String name;
+        // CRC-32 of the class file javac wrote
+        long crc = -1;
+        Set<String> interfaces = new LinkedHashSet<>();
+        // Every annotation on the class or its members, by class name
+        Set<String> annotations = new LinkedHashSet<>();
+        List<PatchEntry> patches = new ArrayList<>();
+        List<MethodEntry> methods = new ArrayList<>();
+        List<EnumFieldEntry> enumFields = new ArrayList<>();
+    }
+
+    // A single @SpirePatch
+    static class PatchEntry
+    {
+        // null when left as void.class
+        String clz = null;
+        String cls = "";
+        String method = null;
+        // null when left as the default
+        String[] paramtypez = null;
+        String[] paramtypes = null;
+        boolean optional = false;
+    }
+
+    static class MethodEntry
+    {
+        String name;
+        String descriptor;
+        // By descriptor
+        Set<String> annotations = new LinkedHashSet<>();
+        // null unless the method is annotated with @SpireInsertPatch
+        InsertEntry insert = null;
+    }
+
+    // A single @SpireInsertPatch
+    static class InsertEntry
+    {
+        // null when left as SpireInsertPatch.NONE
+        String locator = null;
+        int loc = -1;
+        int rloc = -1;
+        int[] locs = new int[0];
+        int[] rlocs = new int[0];
+        String[] localvars = new String[0];
+    }
+
+    // A static field annotated with @SpireEnum
+    static class EnumFieldEntry
+    {
+        String field;
+        String enumType;
+        String enumName;
+    }
+
+    void write(OutputStream out) throws IOException
+    {
+        formatVersion = FORMAT_VERSION;
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        new Gson().toJson(this, writer);
+        writer.flush();
+    }
+
+    // Returns null if the jar has no manifest or it can't be used
+    public static JarIndex load(File jar) throws IOException
+    {
+        try (ZipFile zip = new ZipFile(jar)) {
+            ZipEntry entry = zip.getEntry(PATH);
+            if (entry == null) {
+                return null;
+            }
+
+            PatchManifest manifest;
+            try (Reader in = new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8)) {
+                manifest = new Gson().fromJson(in, PatchManifest.class);
+            } catch (JsonParseException e) {
+                System.out.println("Ignoring unreadable patch manifest in " + jar.getName() + ": " + e.getMessage());
+                return null;
+            }
+            if (manifest == null || manifest.formatVersion != FORMAT_VERSION) {
+                return null;
+            }
+
+            Map<String, ClassEntry> classes = new HashMap<>();
+            for (ClassEntry c : manifest.classes) {
+                classes.put(c.name, c);
+            }
+
+            List<ZipEntry> generated = new ArrayList<>();
+            Set<String> missing = new HashSet<>(classes.keySet());
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.endsWith(".class") || name.endsWith("module-info.class") || name.endsWith("package-info.class")) {
+                    continue;
+                }
+                String className = name.substring(0, name.length() - 6).replace('/', '.');
+                ClassEntry c = classes.get(className);
+                if (c != null) {
+                    if (c.crc == -1 || c.crc != entry.getCrc()) {
+                        return null;
+                    }
+                    missing.remove(className);
+                    continue;
+                }
+                if (!isGenerated(className) || !classes.containsKey(topLevel(className))) {
+                    return null;
+                }
+                generated.add(entry);
+            }
+            if (!missing.isEmpty()) {
+                return null;
+            }
+
+            JarIndex index = manifest.toIndex();
+            for (ZipEntry e : generated) {
+                try (InputStream in = zip.getInputStream(e)) {
+                    JarScanner.scanClass(index, readAll(in));
+                }
+            }
+            return index;
+        }
+    }
+
+    private JarIndex toIndex()
+    {
+        JarIndex index = new JarIndex();
+        for (ClassEntry c : classes) {
+            // Same as JarScanner, every class gets an entry in both
+            index.classIndex.computeIfAbsent(c.name, k -> new LinkedHashSet<>());
+            index.implementsIndex.put(c.name, new LinkedHashSet<>(c.interfaces));
+            for (String annotation : c.annotations) {
+                index.addAnnotation(annotation, c.name);
+            }
+            for (EnumFieldEntry f : c.enumFields) {
+                index.enumFields.add(new JarIndex.EnumField(c.name, f.field, f.enumType, f.enumName));
+            }
+
+            List<JarIndex.Patch> patches = new ArrayList<>();
+            for (PatchEntry p : c.patches) {
+                JarIndex.Patch patch = new JarIndex.Patch();
+                patch.clz = p.clz;
+                patch.cls = p.cls;
+                patch.method = p.method;
+                patch.paramtypez = p.paramtypez;
+                patch.paramtypes = p.paramtypes;
+                patch.optional = p.optional;
+                patches.add(patch);
+            }
+            List<JarScanner.MethodRecord> methods = new ArrayList<>();
+            for (MethodEntry m : c.methods) {
+                JarScanner.MethodRecord record = new JarScanner.MethodRecord(m.name, m.descriptor);
+                record.annotations.addAll(m.annotations);
+                if (m.insert != null) {
+                    record.insert = new JarIndex.InsertPatch();
+                    record.insert.locator = m.insert.locator;
+                    record.insert.loc = m.insert.loc;
+                    record.insert.rloc = m.insert.rloc;
+                    record.insert.locs = m.insert.locs;
+                    record.insert.rlocs = m.insert.rlocs;
+                    record.insert.localvars = m.insert.localvars;
+                }
+                methods.add(record);
+            }
+            JarScanner.addClass(index, c.name, patches, methods);
+        }
+        return index;
+    }
+
+    // javac names anonymous and local classes, and the classes holding switch maps, Outer$<number>...
+    // Anything nested in one of those is as invisible to the processor
+    private static boolean isGenerated(String className)
+    {
+        for (int i = className.indexOf('$'); i >= 0; i = className.indexOf('$', i + 1)) {
+            if (i + 1 < className.length() && Character.isDigit(className.charAt(i + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String topLevel(String className)
+    {
+        int i = className.indexOf('$');
+        return i < 0 ? className : className.substring(0, i);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,397 @@
+package com.evacipated.cardcrawl.modthespire.scanner;
+
+import com.evacipated.cardcrawl.modthespire.lib.*;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Writes META-INF/modthespire/patches.json, see PatchManifest
+// Mods opt in by running it as part of their build, ie javac -processor with this class name,
+// or maven-compiler-plugin's annotationProcessors. It records the same things JarScanner reads from
+// class files, so MTS doesn't have to read every class in the jar on a launch it has no cached index for.
+// The manifest holds each class file's CRC, so it's written once javac has written all of them, which
+// only javac lets a processor see. Under other compilers nothing is written.
+@SupportedAnnotationTypes("*")
+public class PatchManifestProcessor extends AbstractProcessor
+{
+    private final PatchManifest manifest = new PatchManifest();
+    private final Map<String, PatchManifest.ClassEntry> classes = new HashMap<>();
+    // Classes javac hasn't written yet
+    private final Set<String> pending = new HashSet<>();
+    private boolean listening = false;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv)
+    {
+        super.init(processingEnv);
+        try {
+            JavacTask.instance(processingEnv).addTaskListener(new ClassFileListener());
+            listening = true;
+        } catch (IllegalArgumentException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Patch manifest needs javac, none will be written");
+        }
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        if (listening) {
+            for (Element element : roundEnv.getRootElements()) {
+                if (element instanceof TypeElement) {
+                    addType((TypeElement) element);
+                }
+            }
+        }
+        // Never claims annotations, other processors still see them
+        return false;
+    }
+
+    private class ClassFileListener implements TaskListener
+    {
+        @Override
+        public void started(TaskEvent e)
+        {
+        }
+
+        @Override
+        public void finished(TaskEvent e)
+        {
+            if (e.getKind() != TaskEvent.Kind.GENERATE || e.getTypeElement() == null) {
+                return;
+            }
+            String className = processingEnv.getElementUtils().getBinaryName(e.getTypeElement()).toString();
+            PatchManifest.ClassEntry entry = classes.get(className);
+            if (entry == null || !pending.remove(className)) {
+                return;
+            }
+            try {
+                entry.crc = crc(e.getTypeElement(), className);
+                if (pending.isEmpty()) {
+                    write();
+                }
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Failed to write patch manifest: " + ex.getMessage());
+            }
+        }
+    }
+
+    private long crc(TypeElement type, String className) throws IOException
+    {
+        String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String relativeName = pkg.isEmpty() ? className : className.substring(pkg.length() + 1);
+        FileObject file = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, pkg, relativeName + ".class");
+        CRC32 crc = new CRC32();
+        try (InputStream in = file.openInputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private void write() throws IOException
+    {
+        FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", PatchManifest.PATH);
+        try (OutputStream out = file.openOutputStream()) {
+            manifest.write(out);
+        }
+    }
+
+    private void addType(TypeElement type)
+    {
+        String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+        PatchManifest.ClassEntry entry = new PatchManifest.ClassEntry();
+        entry.name = className;
+        classes.put(className, entry);
+        manifest.classes.add(entry);
+        pending.add(className);
+
+        for (TypeMirror i : type.getInterfaces()) {
+            entry.interfaces.add(className(i));
+        }
+
+        for (AnnotationMirror a : retained(type)) {
+            String name = annotationName(a);
+            entry.annotations.add(name);
+            if (name.equals(SpirePatch.class.getName())) {
+                entry.patches.add(patch(a));
+            } else if (name.equals(SpirePatches.class.getName())) {
+                for (AnnotationValue v : values(value(a, "value"))) {
+                    entry.patches.add(patch((AnnotationMirror) v.getValue()));
+                }
+            }
+        }
+
+        for (Element member : type.getEnclosedElements()) {
+            switch (member.getKind()) {
+                case FIELD:
+                case ENUM_CONSTANT:
+                    addField(entry, (VariableElement) member);
+                    break;
+                case METHOD:
+                case CONSTRUCTOR:
+                    entry.methods.add(method(entry, (ExecutableElement) member));
+                    break;
+                case CLASS:
+                case INTERFACE:
+                case ENUM:
+                case ANNOTATION_TYPE:
+                    addType((TypeElement) member);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void addField(PatchManifest.ClassEntry entry, VariableElement field)
+    {
+        for (AnnotationMirror a : retained(field)) {
+            String name = annotationName(a);
+            entry.annotations.add(name);
+            if (name.equals(SpireEnum.class.getName())) {
+                String enumName = field.getSimpleName().toString();
+                AnnotationValue value = value(a, "name");
+                if (value != null && !((String) value.getValue()).isEmpty()) {
+                    enumName = (String) value.getValue();
+                }
+                PatchManifest.EnumFieldEntry enumField = new PatchManifest.EnumFieldEntry();
+                enumField.field = field.getSimpleName().toString();
+                enumField.enumType = className(field.asType());
+                enumField.enumName = enumName;
+                entry.enumFields.add(enumField);
+            }
+        }
+    }
+
+    private PatchManifest.MethodEntry method(PatchManifest.ClassEntry entry, ExecutableElement method)
+    {
+        PatchManifest.MethodEntry record = new PatchManifest.MethodEntry();
+        record.name = method.getKind() == ElementKind.CONSTRUCTOR ? "<init>" : method.getSimpleName().toString();
+        record.descriptor = descriptor(method);
+        for (AnnotationMirror a : retained(method)) {
+            String annotation = annotationName(a);
+            entry.annotations.add(annotation);
+            record.annotations.add(descriptor(a.getAnnotationType()));
+            if (annotation.equals(SpireInsertPatch.class.getName())) {
+                record.insert = insertPatch(a);
+            }
+        }
+        for (VariableElement parameter : method.getParameters()) {
+            for (AnnotationMirror a : retained(parameter)) {
+                entry.annotations.add(annotationName(a));
+            }
+        }
+        return record;
+    }
+
+    private PatchManifest.PatchEntry patch(AnnotationMirror a)
+    {
+        PatchManifest.PatchEntry patch = new PatchManifest.PatchEntry();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : a.getElementValues().entrySet()) {
+            Object value = e.getValue().getValue();
+            switch (e.getKey().getSimpleName().toString()) {
+                case "clz":
+                    if (((TypeMirror) value).getKind() != TypeKind.VOID) {
+                        patch.clz = className((TypeMirror) value);
+                    }
+                    break;
+                case "cls":
+                    patch.cls = (String) value;
+                    break;
+                case "method":
+                    patch.method = (String) value;
+                    break;
+                case "optional":
+                    patch.optional = (Boolean) value;
+                    break;
+                case "paramtypez": {
+                    List<? extends AnnotationValue> values = values(e.getValue());
+                    if (values.size() != 1 || ((TypeMirror) values.get(0).getValue()).getKind() != TypeKind.VOID) {
+                        String[] names = new String[values.size()];
+                        for (int i = 0; i < names.length; ++i) {
+                            names[i] = className((TypeMirror) values.get(i).getValue());
+                        }
+                        patch.paramtypez = names;
+                    }
+                    break;
+                }
+                case "paramtypes": {
+                    List<? extends AnnotationValue> values = values(e.getValue());
+                    if (values.size() != 1 || !"DEFAULT".equals(values.get(0).getValue())) {
+                        String[] names = new String[values.size()];
+                        for (int i = 0; i < names.length; ++i) {
+                            names[i] = (String) values.get(i).getValue();
+                        }
+                        patch.paramtypes = names;
+                    }
+                    break;
+                }
+            }
+        }
+        return patch;
+    }
+
+    private PatchManifest.InsertEntry insertPatch(AnnotationMirror a)
+    {
+        PatchManifest.InsertEntry insert = new PatchManifest.InsertEntry();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : a.getElementValues().entrySet()) {
+            Object value = e.getValue().getValue();
+            switch (e.getKey().getSimpleName().toString()) {
+                case "locator":
+                    String locator = className((TypeMirror) value);
+                    if (!locator.equals(SpireInsertPatch.NONE.class.getName())) {
+                        insert.locator = locator;
+                    }
+                    break;
+                case "loc":
+                    insert.loc = (Integer) value;
+                    break;
+                case "rloc":
+                    insert.rloc = (Integer) value;
+                    break;
+                case "locs":
+                    insert.locs = ints(values(e.getValue()));
+                    break;
+                case "rlocs":
+                    insert.rlocs = ints(values(e.getValue()));
+                    break;
+                case "localvars": {
+                    List<? extends AnnotationValue> values = values(e.getValue());
+                    String[] names = new String[values.size()];
+                    for (int i = 0; i < names.length; ++i) {
+                        names[i] = (String) values.get(i).getValue();
+                    }
+                    insert.localvars = names;
+                    break;
+                }
+            }
+        }
+        return insert;
+    }
+
+    // Annotations that end up in the class file, which is all JarScanner sees
+    private List<AnnotationMirror> retained(Element element)
+    {
+        List<AnnotationMirror> ret = new ArrayList<>();
+        for (AnnotationMirror a : element.getAnnotationMirrors()) {
+            Retention retention = a.getAnnotationType().asElement().getAnnotation(Retention.class);
+            if (retention == null || retention.value() != RetentionPolicy.SOURCE) {
+                ret.add(a);
+            }
+        }
+        return ret;
+    }
+
+    private String annotationName(AnnotationMirror a)
+    {
+        return className(a.getAnnotationType());
+    }
+
+    private static AnnotationValue value(AnnotationMirror a, String name)
+    {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : a.getElementValues().entrySet()) {
+            if (e.getKey().getSimpleName().contentEquals(name)) {
+                return e.getValue();
+            }
+        }
+        return null;
+    }
+
+    // A single value given for an array element is still reported as a list
+    @SuppressWarnings("unchecked")
+    private static List<? extends AnnotationValue> values(AnnotationValue value)
+    {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value.getValue() instanceof List) {
+            return (List<? extends AnnotationValue>) value.getValue();
+        }
+        return Collections.singletonList(value);
+    }
+
+    private static int[] ints(List<? extends AnnotationValue> values)
+    {
+        int[] ret = new int[values.size()];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = (Integer) values.get(i).getValue();
+        }
+        return ret;
+    }
+
+    // Same as Class.getName() for non-arrays and ASM's Type.getClassName()
+    private String className(TypeMirror type)
+    {
+        Types types = processingEnv.getTypeUtils();
+        type = types.erasure(type);
+        switch (type.getKind()) {
+            case ARRAY:
+                return className(((ArrayType) type).getComponentType()) + "[]";
+            case DECLARED:
+                return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) type).asElement()).toString();
+            default:
+                return type.toString();
+        }
+    }
+
+    private String descriptor(ExecutableElement method)
+    {
+        // Constructors miss the parameters javac adds (outer instance, enum name and ordinal), but
+        // only patch and override methods' descriptors are ever used
+        StringBuilder sb = new StringBuilder("(");
+        for (VariableElement parameter : method.getParameters()) {
+            sb.append(descriptor(parameter.asType()));
+        }
+        sb.append(')');
+        sb.append(descriptor(method.getReturnType()));
+        return sb.toString();
+    }
+
+    private String descriptor(TypeMirror type)
+    {
+        type = processingEnv.getTypeUtils().erasure(type);
+        switch (type.getKind()) {
+            case BOOLEAN: return "Z";
+            case BYTE: return "B";
+            case CHAR: return "C";
+            case SHORT: return "S";
+            case INT: return "I";
+            case LONG: return "J";
+            case FLOAT: return "F";
+            case DOUBLE: return "D";
+            case VOID: return "V";
+            case ARRAY:
+                return "[" + descriptor(((ArrayType) type).getComponentType());
+            default:
+                return "L" + className(type).replace('.', '/') + ";";
+        }
+    }
+}